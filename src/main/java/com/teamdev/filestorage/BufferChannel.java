@@ -0,0 +1,94 @@
+package com.teamdev.filestorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only seekable channel over object bytes held in memory or mapped from file.
+ * Object is split into regions of equal power of two size, since one buffer can't exceed 2 GB.
+ * Reads copy bytes from regions without system calls.
+ *
+ * @author Alex Geta
+ */
+class BufferChannel implements SeekableByteChannel {
+
+    private final ByteBuffer[] regions;
+    private final int regionShift;
+    private final long regionMask;
+    private final long size;
+    private long position;
+    private boolean isOpen = true;
+
+    /**
+     * @param regions     object bytes, every region but the last one has 2^regionShift bytes.
+     * @param regionShift binary logarithm of region size.
+     * @param size        object size.
+     */
+    BufferChannel(ByteBuffer[] regions, int regionShift, long size) {
+        this.regions = regions;
+        this.regionShift = regionShift;
+        this.regionMask = (1L << regionShift) - 1;
+        this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer target) throws IOException {
+        if (!isOpen) throw new ClosedChannelException();
+        if (position >= size) return -1;
+        int readBytes = 0;
+        while (target.hasRemaining() && position < size) {
+            final ByteBuffer region = regions[(int) (position >>> regionShift)].duplicate();
+            final int regionPosition = (int) (position & regionMask);
+            final int length = Math.min(region.limit() - regionPosition, target.remaining());
+            region.position(regionPosition);
+            region.limit(regionPosition + length);
+            target.put(region);
+            position += length;
+            readBytes += length;
+        }
+        return readBytes;
+    }
+
+    @Override
+    public int write(ByteBuffer source) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        if (!isOpen) throw new ClosedChannelException();
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if (newPosition < 0) throw new IllegalArgumentException("Position must be >= 0");
+        if (!isOpen) throw new ClosedChannelException();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (!isOpen) throw new ClosedChannelException();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() {
+        isOpen = false;
+    }
+}
@@ -0,0 +1,190 @@
+package com.teamdev.filestorage;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable ByteBuffers split into size classes.
+ * Every thread keeps one released buffer per size class (fast path without contention),
+ * surplus buffers go to the shared per class queues. Buffers kept by threads and by shared queues
+ * are counted against one pool limit, everything above the limit is left to garbage collector.
+ *
+ * @author Alex Geta
+ */
+public class BufferPool {
+
+    /**
+     * Smallest size class is 4 KB, every next class is 4 times bigger, the biggest one is 1 MB.
+     */
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int CLASS_SHIFT_STEP = 2;
+    private static final int CLASS_COUNT = 5;
+    public static final int MAX_BUFFER_SIZE = 1 << (MIN_SIZE_SHIFT + CLASS_SHIFT_STEP * (CLASS_COUNT - 1));
+
+    private final boolean direct;
+    /**
+     * Max amount of bytes held by thread local buffers and shared queues.
+     */
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final Queue<ByteBuffer>[] sharedBuffers;
+    private final ThreadLocal<LocalBuffers> localBuffers = new ThreadLocal<LocalBuffers>() {
+        @Override
+        protected LocalBuffers initialValue() {
+            return new LocalBuffers();
+        }
+    };
+    /**
+     * Threads keeping at least one local buffer, used to return buffers of terminated threads to the limit.
+     */
+    private final ConcurrentMap<Thread, LocalBuffers> localBuffersOwners = new ConcurrentHashMap<Thread, LocalBuffers>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param direct         true for direct buffers, false for heap ones.
+     * @param maxPooledBytes max amount of bytes kept by thread local buffers and shared queues.
+     */
+    public BufferPool(boolean direct, long maxPooledBytes) {
+        if (maxPooledBytes < 0) throw new IllegalArgumentException("Max pooled bytes must be >= 0");
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        this.sharedBuffers = newQueues(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sharedBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<ByteBuffer>[] newQueues(int count) {
+        return new Queue[count];
+    }
+
+    /**
+     * Returns cleared buffer which capacity is the smallest size class able to hold
+     * the specified amount of bytes, or the biggest class if the amount is unknown (<= 0) or too big.
+     *
+     * @param expectedBytes amount of bytes going to be transferred through the buffer.
+     * @return buffer which must be returned back by {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire(long expectedBytes) {
+        final int sizeClass = sizeClass(expectedBytes);
+        outstanding.incrementAndGet();
+
+        final LocalBuffers local = localBuffers.get();
+        ByteBuffer buffer = local.buffers[sizeClass];
+        if (buffer != null) {
+            local.buffers[sizeClass] = null;
+            if (--local.count == 0) localBuffersOwners.remove(Thread.currentThread());
+        } else buffer = sharedBuffers[sizeClass].poll();
+        if (buffer != null) pooledBytes.addAndGet(-buffer.capacity());
+
+        if (buffer != null) {
+            hits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        final int size = classSize(sizeClass);
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Returns buffer acquired by {@link #acquire(long)} back to the pool.
+     *
+     * @param buffer released buffer, ignored if null or not allocated by the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        final int sizeClass = sizeClass(buffer.capacity());
+        if (classSize(sizeClass) != buffer.capacity() || buffer.isDirect() != direct) return;
+        outstanding.decrementAndGet();
+
+        if (!reserve(buffer.capacity()) && (reclaimTerminatedThreads() == 0 || !reserve(buffer.capacity()))) return;
+        final LocalBuffers local = localBuffers.get();
+        if (local.buffers[sizeClass] == null) {
+            local.buffers[sizeClass] = buffer;
+            if (local.count++ == 0) localBuffersOwners.put(Thread.currentThread(), local);
+        } else sharedBuffers[sizeClass].offer(buffer);
+    }
+
+    private boolean reserve(int bytes) {
+        if (pooledBytes.addAndGet(bytes) <= maxPooledBytes) return true;
+        pooledBytes.addAndGet(-bytes);
+        return false;
+    }
+
+    /**
+     * Returns local buffers of terminated threads to the pool limit, buffers themselves are left to garbage collector.
+     *
+     * @return amount of returned bytes.
+     */
+    private long reclaimTerminatedThreads() {
+        long reclaimedBytes = 0;
+        for (Map.Entry<Thread, LocalBuffers> entry : localBuffersOwners.entrySet()) {
+            if (entry.getKey().isAlive() || !localBuffersOwners.remove(entry.getKey(), entry.getValue())) continue;
+            for (ByteBuffer buffer : entry.getValue().buffers) {
+                if (buffer != null) reclaimedBytes += buffer.capacity();
+            }
+        }
+        pooledBytes.addAndGet(-reclaimedBytes);
+        return reclaimedBytes;
+    }
+
+    private static int sizeClass(long bytes) {
+        if (bytes <= 0 || bytes >= MAX_BUFFER_SIZE) return CLASS_COUNT - 1;
+        int sizeClass = 0;
+        while (classSize(sizeClass) < bytes) sizeClass++;
+        return sizeClass;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (MIN_SIZE_SHIFT + CLASS_SHIFT_STEP * sizeClass);
+    }
+
+    /**
+     * @return amount of acquire calls served by previously released buffer.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return amount of acquire calls which allocated a new buffer.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return amount of acquired but not yet released buffers.
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return amount of bytes currently held by thread local buffers and shared queues.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Buffers kept by one thread, one per size class. Accessed by the owner thread only,
+     * other threads read them after the owner is terminated.
+     */
+    private static final class LocalBuffers {
+        private final ByteBuffer[] buffers = new ByteBuffer[CLASS_COUNT];
+        private int count;
+    }
+}
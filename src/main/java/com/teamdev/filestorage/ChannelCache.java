@@ -0,0 +1,279 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Bounded cache of open read-only channels of object files, so repeated reads of the same objects
+ * don't pay for opening and closing files. Channels are shared by readers, which read them only
+ * by positional reads. Every reader holds a reference to the channel handle; handle evicted or invalidated
+ * while it is referenced is closed when the last reader releases it.
+ * Handle is used only for the same object metadata it was opened for, so replaced object is never read.
+ * Amount of cached channels is capped by a quarter of the process file descriptor limit;
+ * when every cached channel is in use, channel is opened for the reader only and closed on release.
+ *
+ * @author Alex Geta
+ */
+public class ChannelCache {
+
+    /**
+     * Open channel of the object file with amount of readers using it, guarded by the cache.
+     */
+    static final class Handle {
+        final ObjectMetadata metadata;
+        final FileChannel channel;
+        final boolean isCached;
+        int references = 1;
+        boolean isEvicted;
+
+        Handle(ObjectMetadata metadata, FileChannel channel, boolean isCached) {
+            this.metadata = metadata;
+            this.channel = channel;
+            this.isCached = isCached;
+        }
+    }
+
+    private final int maxChannelsCount;
+    private final LinkedHashMap<KeyHash, Handle> handles = new LinkedHashMap<KeyHash, Handle>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long bypasses;
+
+    /**
+     * @param maxChannelsCount max amount of cached channels, lowered to a quarter of file descriptor limit.
+     */
+    ChannelCache(int maxChannelsCount) {
+        this.maxChannelsCount = (int) Math.max(1, Math.min(maxChannelsCount, getMaxFileDescriptorsCount() / 4));
+    }
+
+    private static long getMaxFileDescriptorsCount() {
+        final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) operatingSystem).getMaxFileDescriptorCount();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns handle of the object file channel, opens the file if it isn't cached.
+     * Must be called under read lock of the key, handle must be released by {@link #release(Handle)}.
+     *
+     * @throws java.nio.file.NoSuchFileException if object file doesn't exist.
+     */
+    Handle acquire(ObjectMetadata metadata, File file) throws IOException {
+        synchronized (this) {
+            final Handle handle = getHandle(metadata);
+            if (handle != null) {
+                hits++;
+                return handle;
+            }
+            misses++;
+        }
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        synchronized (this) {
+            final Handle cached = getHandle(metadata);
+            if (cached != null) {
+                channel.close();
+                return cached;
+            }
+            if (handles.size() >= maxChannelsCount && !evictIdle()) {
+                bypasses++;
+                return new Handle(metadata, channel, false);
+            }
+            final Handle handle = new Handle(metadata, channel, true);
+            handles.put(metadata.keyHash, handle);
+            return handle;
+        }
+    }
+
+    /**
+     * Returns read-only channel with its own position over shared channel of the object file.
+     * Closing the channel releases the handle.
+     */
+    SeekableByteChannel open(ObjectMetadata metadata, File file) throws IOException {
+        return new HandleChannel(acquire(metadata, file));
+    }
+
+    /**
+     * Releases the handle, closes its channel if it is no longer cached and no reader uses it.
+     */
+    void release(Handle handle) {
+        if (handle.isCached) {
+            synchronized (this) {
+                if (--handle.references > 0 || !handle.isEvicted) return;
+            }
+        }
+        close(handle.channel);
+    }
+
+    /**
+     * Drops cached channel of the key. Called when object is saved and before object file is deleted,
+     * so that idle cached channel neither blocks deletion nor holds space of the deleted file.
+     */
+    synchronized void invalidate(KeyHash keyHash) {
+        final Handle handle = handles.remove(keyHash);
+        if (handle != null) evict(handle);
+    }
+
+    /**
+     * Drops all cached channels, channels used by readers are closed when released. Called when storage is closed.
+     */
+    synchronized void close() {
+        for (Handle handle : handles.values()) evict(handle);
+        handles.clear();
+    }
+
+    /**
+     * @return referenced handle opened for the metadata, or null; drops handle of replaced object.
+     */
+    private Handle getHandle(ObjectMetadata metadata) {
+        final Handle handle = handles.get(metadata.keyHash);
+        if (handle == null) return null;
+        if (handle.metadata != metadata) {
+            handles.remove(metadata.keyHash);
+            evict(handle);
+            return null;
+        }
+        handle.references++;
+        return handle;
+    }
+
+    /**
+     * Closes the least recently used channel which no reader uses.
+     *
+     * @return false if every cached channel is in use.
+     */
+    private boolean evictIdle() {
+        final Iterator<Handle> iterator = handles.values().iterator();
+        while (iterator.hasNext()) {
+            final Handle handle = iterator.next();
+            if (handle.references > 0) continue;
+            iterator.remove();
+            evict(handle);
+            evictions++;
+            return true;
+        }
+        return false;
+    }
+
+    private void evict(Handle handle) {
+        handle.isEvicted = true;
+        if (handle.references == 0) close(handle.channel);
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return max amount of cached channels.
+     */
+    public int getMaxChannelsCount() {
+        return maxChannelsCount;
+    }
+
+    public synchronized int getCachedChannelsCount() {
+        return handles.size();
+    }
+
+    public synchronized long getHitsCount() {
+        return hits;
+    }
+
+    public synchronized long getMissesCount() {
+        return misses;
+    }
+
+    /**
+     * @return amount of idle channels closed to cache new ones.
+     */
+    public synchronized long getEvictionsCount() {
+        return evictions;
+    }
+
+    /**
+     * @return amount of channels opened for one reader because every cached channel was in use.
+     */
+    public synchronized long getBypassesCount() {
+        return bypasses;
+    }
+
+    /**
+     * Read-only channel of one reader, reads shared channel by positional reads from its own position.
+     */
+    private final class HandleChannel implements SeekableByteChannel {
+        private final Handle handle;
+        private long position;
+        private boolean isOpen = true;
+
+        HandleChannel(Handle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer target) throws IOException {
+            if (!isOpen) throw new ClosedChannelException();
+            final int read = handle.channel.read(target, position);
+            if (read > 0) position += read;
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized long position() throws IOException {
+            if (!isOpen) throw new ClosedChannelException();
+            return position;
+        }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+            if (newPosition < 0) throw new IllegalArgumentException("Position must be >= 0");
+            if (!isOpen) throw new ClosedChannelException();
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public synchronized long size() throws IOException {
+            if (!isOpen) throw new ClosedChannelException();
+            return handle.metadata.size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!isOpen) return;
+            isOpen = false;
+            release(handle);
+        }
+    }
+}
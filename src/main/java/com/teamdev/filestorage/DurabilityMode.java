@@ -0,0 +1,22 @@
+package com.teamdev.filestorage;
+
+/**
+ * Guarantee given by saveFile about object surviving power loss.
+ *
+ * @author Alex Geta
+ */
+public enum DurabilityMode {
+    /**
+     * Object bytes and metadata are left in OS page cache, saveFile returns before they reach disk.
+     */
+    NONE,
+    /**
+     * Segments, metadata journal and expiration journal are synced once for a group of concurrent saves,
+     * saveFile returns after the group is synced. Objects stored in own files are synced individually.
+     */
+    GROUP,
+    /**
+     * Every saveFile syncs its object bytes, segment, metadata journal and expiration journal itself.
+     */
+    PER_OBJECT
+}
@@ -0,0 +1,42 @@
+package com.teamdev.filestorage;
+
+import java.util.List;
+
+/**
+ * Decides which objects are deleted first when storage is cleaned.
+ * Policy is notified about every stored, read and deleted object, implementations must be thread safe.
+ * Every storage needs its own policy instance.
+ *
+ * @author Alex Geta
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when object is saved, recovered on startup or returned back after failed eviction.
+     *
+     * @param object metadata of the object.
+     */
+    void onAdd(ObjectMetadata object);
+
+    /**
+     * Called when object is read.
+     *
+     * @param object metadata of the object.
+     */
+    void onAccess(ObjectMetadata object);
+
+    /**
+     * Called when object is deleted. Must ignore objects which are not tracked by policy.
+     *
+     * @param object metadata of the object.
+     */
+    void onRemove(ObjectMetadata object);
+
+    /**
+     * Takes objects to evict out of the policy, in eviction order.
+     *
+     * @param bytes amount of bytes desired to free.
+     * @return objects whose total size is at least the specified amount, or all tracked objects.
+     */
+    List<ObjectMetadata> pollVictims(long bytes);
+}
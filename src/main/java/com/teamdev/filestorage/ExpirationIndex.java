@@ -0,0 +1,174 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Append-only on-disk journal of expiration deadlines keyed by 128 bit key hash.
+ * Every record is 24 bytes: hash high, hash low and deadline in milliseconds, zero deadline removes the key.
+ * Journal is compacted by rewriting live deadlines when it becomes much bigger than the live set.
+ * Appended records reach disk when journal is synced as durability mode requires, compacted journal is always
+ * forced before it replaces the old one.
+ *
+ * @author Alex Geta
+ */
+class ExpirationIndex implements GroupCommit.Syncable {
+
+    static final String FILE_NAME = "expirations.idx";
+
+    private static final int RECORD_SIZE = 24;
+    private static final long REMOVED = 0;
+    /**
+     * Journal is compacted when it holds more than this amount of records per live deadline.
+     */
+    private static final int COMPACTION_RATIO = 2;
+    private static final long MIN_COMPACTION_RECORDS = 64 * 1024;
+    private static final int LOAD_BUFFER_SIZE = RECORD_SIZE * 4096;
+
+    private final File indexFile;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private volatile FileChannel channel;
+    private volatile long loadLimit;
+    private long recordsCount;
+
+    ExpirationIndex(File rootFolder) {
+        this.indexFile = new File(rootFolder, FILE_NAME);
+    }
+
+    /**
+     * Opens journal for appending. Torn record at the end of journal is discarded.
+     *
+     * @return true if journal holds records to load.
+     */
+    synchronized boolean open() throws IOException {
+        channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = channel.size();
+        loadLimit = size - size % RECORD_SIZE;
+        if (loadLimit != size) channel.truncate(loadLimit);
+        channel.position(loadLimit);
+        recordsCount = loadLimit / RECORD_SIZE;
+        return recordsCount > 0;
+    }
+
+    /**
+     * Reads live deadlines recorded before opening. Records may be appended concurrently,
+     * but journal must not be compacted until loading is finished.
+     *
+     * @param deadlines map to put live deadlines in.
+     */
+    void load(Map<KeyHash, Long> deadlines) throws IOException {
+        final FileChannel channel = this.channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(LOAD_BUFFER_SIZE);
+        long position = 0;
+        while (position < loadLimit) {
+            buffer.clear();
+            if (loadLimit - position < buffer.capacity()) buffer.limit((int) (loadLimit - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) break;
+            }
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_SIZE) {
+                final KeyHash keyHash = new KeyHash(buffer.getLong(), buffer.getLong());
+                final long deadline = buffer.getLong();
+                if (deadline == REMOVED) {
+                    deadlines.remove(keyHash);
+                } else deadlines.put(keyHash, deadline);
+            }
+            position += buffer.limit();
+        }
+    }
+
+    synchronized void put(KeyHash keyHash, long deadline) throws IOException {
+        append(keyHash, deadline);
+    }
+
+    synchronized void remove(KeyHash keyHash) throws IOException {
+        append(keyHash, REMOVED);
+    }
+
+    private void append(KeyHash keyHash, long deadline) throws IOException {
+        if (channel == null) return;
+        record.clear();
+        record.putLong(keyHash.high).putLong(keyHash.low).putLong(deadline);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        recordsCount++;
+    }
+
+    /**
+     * Forces journal records appended so far to disk. Appends are not blocked while journal is forced.
+     */
+    @Override
+    public void sync() throws IOException {
+        final FileChannel channel = this.channel;
+        if (channel == null) return;
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            /*replaced journal is forced by compaction*/
+            synchronized (this) {
+                if (this.channel == channel) throw e;
+            }
+        }
+    }
+
+    /**
+     * @return true if journal is worth compacting for the specified amount of live deadlines.
+     */
+    synchronized boolean needsCompaction(long liveCount) {
+        return channel != null && recordsCount > MIN_COMPACTION_RECORDS
+                && recordsCount > liveCount * COMPACTION_RATIO;
+    }
+
+    /**
+     * Replaces journal by the live deadlines. Appending is blocked while compacting.
+     */
+    synchronized void compact(Map<KeyHash, Long> deadlines) throws IOException {
+        if (channel == null) return;
+        final File compactedFile = new File(indexFile.getPath() + ".tmp");
+        final FileChannel compactedChannel = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        long compactedCount = 0;
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(LOAD_BUFFER_SIZE);
+            for (Map.Entry<KeyHash, Long> entry : deadlines.entrySet()) {
+                if (buffer.remaining() < RECORD_SIZE) writeFully(compactedChannel, buffer);
+                buffer.putLong(entry.getKey().high).putLong(entry.getKey().low).putLong(entry.getValue());
+                compactedCount++;
+            }
+            writeFully(compactedChannel, buffer);
+            compactedChannel.force(false);
+        } finally {
+            compactedChannel.close();
+        }
+        channel.close();
+        Files.move(compactedFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        recordsCount = compactedCount;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.teamdev.filestorage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Evicts the oldest objects first. Objects are ordered by creation time, ties are broken by key hash,
+ * so no entries collide. Index is lock-free and costs only its skip list nodes, about 36 bytes per object.
+ *
+ * @author Alex Geta
+ */
+public class FifoEvictionPolicy implements EvictionPolicy {
+
+    private static final Comparator<ObjectMetadata> CREATION_ORDER = new Comparator<ObjectMetadata>() {
+        @Override
+        public int compare(ObjectMetadata first, ObjectMetadata second) {
+            if (first.creationTime != second.creationTime) {
+                return first.creationTime < second.creationTime ? -1 : 1;
+            }
+            return first.keyHash.compareTo(second.keyHash);
+        }
+    };
+
+    private final ConcurrentSkipListSet<ObjectMetadata> entries =
+            new ConcurrentSkipListSet<ObjectMetadata>(CREATION_ORDER);
+
+    @Override
+    public void onAdd(ObjectMetadata object) {
+        entries.add(object);
+    }
+
+    @Override
+    public void onAccess(ObjectMetadata object) {
+    }
+
+    @Override
+    public void onRemove(ObjectMetadata object) {
+        entries.remove(object);
+    }
+
+    @Override
+    public List<ObjectMetadata> pollVictims(long bytes) {
+        final List<ObjectMetadata> victims = new ArrayList<ObjectMetadata>();
+        long victimsBytes = 0;
+        while (victimsBytes < bytes) {
+            final ObjectMetadata victim = entries.pollFirst();
+            if (victim == null) break;
+            victims.add(victim);
+            victimsBytes += victim.size;
+        }
+        return victims;
+    }
+}
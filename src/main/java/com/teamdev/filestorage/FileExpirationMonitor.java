@@ -1,44 +1,256 @@
 package com.teamdev.filestorage;
 
-import java.io.FileNotFoundException;
-import java.util.Date;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Monitoring service is responsible for deleting expired files.
+ * Deadlines are kept in hierarchical timing wheel, so scheduling is O(1)
+ * and monitoring thread sleeps until the nearest deadline instead of rescanning all expiring files.
+ * Deadlines are also recorded in {@link ExpirationIndex} of the root folder and loaded
+ * in background on startup, so expirations survive restarts.
+ * Monitoring thread is started on demand and stops when there are no pending expirations.
  *
  * @author Alex Geta
  */
-public class FileExpirationMonitor extends Thread {
+public class FileExpirationMonitor implements Runnable {
 
-    private final FileStorage fileStorage;
-    private final Map<String, Date> expiringFiles;
+    private static final long TICK_MS = 1;
+    private static final int WHEEL_SIZE = 512;
+    /**
+     * Max amount of keys deleted at once.
+     */
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_POLL_MS = 1000;
 
-    public FileExpirationMonitor(FileStorage fileStorage, Map<String, Date> expiringFiles) {
+    private final FileStorageImpl fileStorage;
+    /**
+     * Actual deadline of every expiring key, stale wheel entries are ignored.
+     */
+    private final Map<KeyHash, Long> expiringFiles = new ConcurrentHashMap<KeyHash, Long>();
+    private final ExpirationIndex expirationIndex;
+    private final DelayQueue<TimingWheel.Bucket> bucketQueue = new DelayQueue<TimingWheel.Bucket>();
+    private final TimingWheel timingWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, System.currentTimeMillis(), bucketQueue);
+    /**
+     * Guards timing wheel: scheduling threads share it, monitoring thread takes it exclusively to move the clock.
+     */
+    private final ReadWriteLock wheelLock = new ReentrantReadWriteLock();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ThreadPoolExecutor monitoringExecutor;
+    /**
+     * True until recorded deadlines are loaded, keys cancelled meanwhile must not be loaded.
+     */
+    private volatile boolean isLoading;
+    private final Set<KeyHash> cancelledWhileLoading =
+            Collections.newSetFromMap(new ConcurrentHashMap<KeyHash, Boolean>());
+
+    FileExpirationMonitor(FileStorageImpl fileStorage, File rootFolder) {
         this.fileStorage = fileStorage;
-        this.expiringFiles = expiringFiles;
+        this.expirationIndex = new ExpirationIndex(rootFolder);
+        this.monitoringExecutor = new ThreadPoolExecutor(1, 1, IDLE_POLL_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileExpirationMonitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.monitoringExecutor.allowCoreThreadTimeOut(true);
+
+        try {
+            isLoading = expirationIndex.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (isLoading) startMonitoring();
     }
 
-    private void checkExpiredFiles() {
-        for (Map.Entry<String, Date> entry : expiringFiles.entrySet()) {
-            long currentTime = System.currentTimeMillis();
-            long fileExpirationTime = entry.getValue().getTime();
+    /**
+     * Schedules deleting of the file associated with the key hash, replaces previous deadline of the key.
+     *
+     * @param keyHash  Hash of the key associated with expiring object.
+     * @param deadline Expiration time in milliseconds since epoch.
+     */
+    void schedule(KeyHash keyHash, long deadline) {
+        expiringFiles.put(keyHash, deadline);
+        try {
+            expirationIndex.put(keyHash, deadline);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        addToWheel(new TimingWheel.Entry(keyHash, deadline));
+    }
 
-            if (currentTime > fileExpirationTime) {
-                try {
-                    fileStorage.deleteFile(entry.getKey());
-                } catch (FileNotFoundException e) {
-                    System.out.println("File already deleted");
-                }
-                expiringFiles.remove(entry.getKey());
+    private void addToWheel(TimingWheel.Entry entry) {
+        boolean isAdded;
+        wheelLock.readLock().lock();
+        try {
+            isAdded = timingWheel.add(entry);
+        } finally {
+            wheelLock.readLock().unlock();
+        }
+        if (isAdded) {
+            pending.incrementAndGet();
+            startMonitoring();
+        } else {
+            deleteExpiredFiles(Collections.singletonList(entry));
+        }
+    }
+
+    /**
+     * Cancels expiration of the key hash.
+     *
+     * @param keyHash Hash of the key associated with expiring object.
+     */
+    void cancel(KeyHash keyHash) {
+        if (isLoading) cancelledWhileLoading.add(keyHash);
+        if (expiringFiles.remove(keyHash) != null) {
+            try {
+                expirationIndex.remove(keyHash);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Takes due deadline of the key out of the monitor. Called under write lock of the key.
+     *
+     * @return false if the key was deleted, rescheduled or saved again after the deadline was scheduled.
+     */
+    boolean expire(KeyHash keyHash, long deadline) {
+        if (!expiringFiles.remove(keyHash, deadline)) return false;
+        try {
+            expirationIndex.remove(keyHash);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * @return journal of deadlines synced together with other logs of the storage.
+     */
+    GroupCommit.Syncable getJournal() {
+        return expirationIndex;
+    }
+
+    /**
+     * Stops monitoring thread and closes expiration index. Pending deadlines stay recorded in the index
+     * and are loaded on the next startup.
+     */
+    void close() throws InterruptedException {
+        monitoringExecutor.shutdownNow();
+        monitoringExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        try {
+            expirationIndex.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return amount of keys awaiting for expiration.
+     */
+    public int getExpiringFilesCount() {
+        return expiringFiles.size();
+    }
+
+    /**
+     * @return true while deadlines recorded before startup are being loaded.
+     */
+    public boolean isLoading() {
+        return isLoading;
+    }
+
+    private void startMonitoring() {
+        if (monitoringExecutor.isShutdown()) return;
+        if (running.compareAndSet(false, true)) {
+            monitoringExecutor.execute(this);
+        }
+    }
+
     @Override
     public void run() {
-        while (!expiringFiles.isEmpty()) {
-            checkExpiredFiles();
+        try {
+            if (isLoading) loadIndex();
+            while (true) {
+                while (pending.get() > 0) {
+                    final TimingWheel.Bucket bucket = bucketQueue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                    if (bucket != null) processDueBuckets(bucket);
+                    compactIndex();
+                }
+                compactIndex();
+                running.set(false);
+                /*recheck to not lose entries scheduled while stopping*/
+                if (pending.get() == 0 || !running.compareAndSet(false, true)) return;
+            }
+        } catch (InterruptedException e) {
+            running.set(false);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loadIndex() {
+        final Map<KeyHash, Long> recordedDeadlines = new HashMap<KeyHash, Long>();
+        try {
+            expirationIndex.load(recordedDeadlines);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Map.Entry<KeyHash, Long> entry : recordedDeadlines.entrySet()) {
+            final KeyHash keyHash = entry.getKey();
+            if (cancelledWhileLoading.contains(keyHash)) continue;
+            if (expiringFiles.putIfAbsent(keyHash, entry.getValue()) == null) {
+                addToWheel(new TimingWheel.Entry(keyHash, entry.getValue()));
+            }
+        }
+        isLoading = false;
+        cancelledWhileLoading.clear();
+    }
+
+    private void compactIndex() {
+        if (isLoading || !expirationIndex.needsCompaction(expiringFiles.size())) return;
+        try {
+            expirationIndex.compact(expiringFiles);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void processDueBuckets(TimingWheel.Bucket bucket) {
+        final List<TimingWheel.Entry> expired = new ArrayList<TimingWheel.Entry>();
+        wheelLock.writeLock().lock();
+        try {
+            while (bucket != null) {
+                timingWheel.advanceClock(bucket.getExpiration());
+                for (TimingWheel.Entry entry : bucket.flush()) {
+                    if (!timingWheel.add(entry)) {
+                        expired.add(entry);
+                    }
+                }
+                bucket = expired.size() < BATCH_SIZE ? bucketQueue.poll() : null;
+            }
+        } finally {
+            wheelLock.writeLock().unlock();
+        }
+        pending.addAndGet(-expired.size());
+        deleteExpiredFiles(expired);
+    }
+
+    private void deleteExpiredFiles(List<TimingWheel.Entry> expired) {
+        for (TimingWheel.Entry entry : expired) {
+            /*skip stale entries of keys which were deleted or rescheduled, the deadline is checked again under key lock*/
+            if (!Long.valueOf(entry.deadline).equals(expiringFiles.get(entry.keyHash))) continue;
+            fileStorage.deleteExpiredFile(entry.keyHash, entry.deadline);
         }
     }
 }
@@ -2,14 +2,19 @@ package com.teamdev.filestorage;
 
 import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileAlreadyExistsException;
 
 /**
  * @author Alex Geta
  */
-public interface FileStorage {
+public interface FileStorage extends Closeable {
 
     boolean saveFile(String key, InputStream inputStream, long expirationTime, CallBack callBack) throws FileAlreadyExistsException,
             NotEnoughFreeSpaceException;
@@ -25,11 +30,22 @@ public interface FileStorage {
 
     InputStream readFile(String key) throws FileNotFoundException;
 
+    ByteBuffer readRange(String key, long offset, int length) throws IOException;
+
+    SeekableByteChannel openFile(String key) throws IOException;
+
+    long transferTo(String key, WritableByteChannel target) throws IOException;
+
+    long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException;
+
     boolean deleteFile(String key) throws FileNotFoundException;
 
     long getFreeSpace();
 
     long clean(long bytes);
 
+    @Override
+    void close();
+
 }
 
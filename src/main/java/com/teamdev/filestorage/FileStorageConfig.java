@@ -0,0 +1,371 @@
+package com.teamdev.filestorage;
+
+/**
+ * Parameters of FileStorageImpl which are fixed at creation time.
+ *
+ * @author Alex Geta
+ */
+public class FileStorageConfig {
+
+    private KeyHasher keyHasher;
+    private RecoveryMode recoveryMode = RecoveryMode.BLOCKING;
+    private int recoveryParallelism = Runtime.getRuntime().availableProcessors() * 2;
+    private int cleanParallelism = Runtime.getRuntime().availableProcessors() * 2;
+    private long checkpointIntervalMillis = 60 * 1000;
+    private EvictionPolicy evictionPolicy;
+    private int packingThresholdBytes;
+    private long segmentSizeBytes = 64 * 1024 * 1024;
+    private double compactionLivenessThreshold = 0.5;
+    private double compactionIoShare = 0.2;
+    private double reclaimHighWatermark;
+    private double reclaimLowWatermark;
+    private long reclaimRateBytesPerSecond;
+    private long stallTimeoutMillis = 10 * 1000;
+    private DurabilityMode durabilityMode = DurabilityMode.NONE;
+    private long groupCommitWindowMillis = 0;
+    private int groupCommitMaxBatchSize = 256;
+    private int lockStripesCount = 1024;
+    private long mappedReadThresholdBytes;
+    private int maxMappedObjectsCount = 256;
+    private long objectCacheCapacityBytes;
+    private int objectCacheMaxObjectSize = 64 * 1024;
+    private int maxCachedChannelsCount;
+    private boolean isIndexLookup;
+
+    /**
+     * @return key hasher, or null to use the one recorded in the root folder (MD5 for a new storage).
+     */
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    /**
+     * Sets key hasher which is recorded in the root folder on first usage and can't be changed later.
+     *
+     * @param keyHasher key hasher, or null to use recorded one.
+     */
+    public void setKeyHasher(KeyHasher keyHasher) {
+        this.keyHasher = keyHasher;
+    }
+
+    public RecoveryMode getRecoveryMode() {
+        return recoveryMode;
+    }
+
+    /**
+     * Sets the way already stored objects are accounted on startup, BLOCKING by default.
+     *
+     * @param recoveryMode recovery mode.
+     */
+    public void setRecoveryMode(RecoveryMode recoveryMode) {
+        if (recoveryMode == null) throw new IllegalArgumentException("Recovery mode is null");
+        this.recoveryMode = recoveryMode;
+    }
+
+    public int getRecoveryParallelism() {
+        return recoveryParallelism;
+    }
+
+    /**
+     * Sets amount of threads scanning folder tree on startup, twice the processors count by default.
+     *
+     * @param recoveryParallelism threads amount.
+     */
+    public void setRecoveryParallelism(int recoveryParallelism) {
+        if (recoveryParallelism <= 0) throw new IllegalArgumentException("Recovery parallelism must be > 0");
+        this.recoveryParallelism = recoveryParallelism;
+    }
+
+    public int getCleanParallelism() {
+        return cleanParallelism;
+    }
+
+    /**
+     * Sets amount of threads deleting evicted objects, twice the processors count by default.
+     *
+     * @param cleanParallelism threads amount.
+     */
+    public void setCleanParallelism(int cleanParallelism) {
+        if (cleanParallelism <= 0) throw new IllegalArgumentException("Clean parallelism must be > 0");
+        this.cleanParallelism = cleanParallelism;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    /**
+     * Sets period of writing metadata checkpoint which makes startup recovery
+     * independent of folder tree size, one minute by default.
+     *
+     * @param checkpointIntervalMillis period in milliseconds, 0 disables checkpoints and metadata journal.
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 0) throw new IllegalArgumentException("Checkpoint interval must be >= 0");
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * @return eviction policy, or null to evict the oldest objects first.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Sets policy choosing objects deleted by clean. Policy instance must not be shared between storages.
+     *
+     * @param evictionPolicy eviction policy, or null to use FifoEvictionPolicy.
+     */
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public double getReclaimHighWatermark() {
+        return reclaimHighWatermark;
+    }
+
+    public double getReclaimLowWatermark() {
+        return reclaimLowWatermark;
+    }
+
+    /**
+     * Enables background reclaiming: objects are evicted when used and reserved space exceeds high watermark,
+     * until it drops to low watermark. Reclaiming is disabled by default.
+     *
+     * @param highWatermark fraction of allocated space starting eviction, 0 disables reclaiming.
+     * @param lowWatermark  fraction of allocated space stopping eviction, less than high watermark.
+     */
+    public void setReclaimWatermarks(double highWatermark, double lowWatermark) {
+        if (highWatermark < 0 || highWatermark > 1) throw new IllegalArgumentException("High watermark must be in [0, 1]");
+        if (highWatermark > 0 && (lowWatermark < 0 || lowWatermark >= highWatermark)) {
+            throw new IllegalArgumentException("Low watermark must be in [0, high watermark)");
+        }
+        this.reclaimHighWatermark = highWatermark;
+        this.reclaimLowWatermark = lowWatermark;
+    }
+
+    public long getReclaimRateBytesPerSecond() {
+        return reclaimRateBytesPerSecond;
+    }
+
+    /**
+     * Limits background eviction rate. Limit is not applied while writers wait for space.
+     *
+     * @param reclaimRateBytesPerSecond max evicted bytes per second, 0 means unlimited (default).
+     */
+    public void setReclaimRateBytesPerSecond(long reclaimRateBytesPerSecond) {
+        if (reclaimRateBytesPerSecond < 0) throw new IllegalArgumentException("Reclaim rate must be >= 0");
+        this.reclaimRateBytesPerSecond = reclaimRateBytesPerSecond;
+    }
+
+    public long getStallTimeoutMillis() {
+        return stallTimeoutMillis;
+    }
+
+    /**
+     * Sets how long saving waits for space freed by callback or background reclaimer
+     * before NotEnoughFreeSpaceException, ten seconds by default.
+     *
+     * @param stallTimeoutMillis timeout in milliseconds.
+     */
+    public void setStallTimeoutMillis(long stallTimeoutMillis) {
+        if (stallTimeoutMillis < 0) throw new IllegalArgumentException("Stall timeout must be >= 0");
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    public int getPackingThresholdBytes() {
+        return packingThresholdBytes;
+    }
+
+    /**
+     * Enables packing of small objects into append-only segment files, bigger objects are stored in own files.
+     * Packing is disabled by default.
+     *
+     * @param packingThresholdBytes max size of packed object, less than {@link BufferPool#MAX_BUFFER_SIZE};
+     *                              0 disables packing.
+     */
+    public void setPackingThresholdBytes(int packingThresholdBytes) {
+        if (packingThresholdBytes < 0 || packingThresholdBytes >= BufferPool.MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Packing threshold must be in [0, " + BufferPool.MAX_BUFFER_SIZE + ")");
+        }
+        this.packingThresholdBytes = packingThresholdBytes;
+    }
+
+    public long getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * Sets size after which segment file is closed for appending and a new one is started, 64 MB by default.
+     *
+     * @param segmentSizeBytes segment size in bytes.
+     */
+    public void setSegmentSizeBytes(long segmentSizeBytes) {
+        if (segmentSizeBytes <= 0 || segmentSizeBytes > SegmentStore.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be in (0, " + SegmentStore.MAX_SEGMENT_SIZE + "]");
+        }
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    public double getCompactionLivenessThreshold() {
+        return compactionLivenessThreshold;
+    }
+
+    /**
+     * Sets share of live bytes below which closed segment is compacted, 0.5 by default.
+     * Lower threshold writes less but keeps more dead bytes on disk.
+     *
+     * @param compactionLivenessThreshold share of live bytes in [0, 1), 0 disables compaction.
+     */
+    public void setCompactionLivenessThreshold(double compactionLivenessThreshold) {
+        if (compactionLivenessThreshold < 0 || compactionLivenessThreshold >= 1) {
+            throw new IllegalArgumentException("Compaction liveness threshold must be in [0, 1)");
+        }
+        this.compactionLivenessThreshold = compactionLivenessThreshold;
+    }
+
+    public double getCompactionIoShare() {
+        return compactionIoShare;
+    }
+
+    /**
+     * Sets share of time compaction may spend on I/O, it sleeps the rest of time. 0.2 by default.
+     *
+     * @param compactionIoShare share of time in (0, 1], 1 disables throttling.
+     */
+    public void setCompactionIoShare(double compactionIoShare) {
+        if (compactionIoShare <= 0 || compactionIoShare > 1) {
+            throw new IllegalArgumentException("Compaction I/O share must be in (0, 1]");
+        }
+        this.compactionIoShare = compactionIoShare;
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    /**
+     * Sets guarantee given by saveFile about object surviving power loss, NONE by default.
+     *
+     * @param durabilityMode durability mode.
+     */
+    public void setDurabilityMode(DurabilityMode durabilityMode) {
+        if (durabilityMode == null) throw new IllegalArgumentException("Durability mode is null");
+        this.durabilityMode = durabilityMode;
+    }
+
+    public long getGroupCommitWindowMillis() {
+        return groupCommitWindowMillis;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    /**
+     * Sets batching of GROUP durability mode: sync waits for more saves until window passes or batch is full.
+     * No window and 256 saves by default: saves arriving during sync still form the next batch.
+     *
+     * @param windowMillis max time in milliseconds the first save of a batch waits for others, 0 syncs at once.
+     * @param maxBatchSize amount of saves which starts sync without waiting for window.
+     */
+    public void setGroupCommit(long windowMillis, int maxBatchSize) {
+        if (windowMillis < 0) throw new IllegalArgumentException("Group commit window must be >= 0");
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("Group commit batch size must be > 0");
+        this.groupCommitWindowMillis = windowMillis;
+        this.groupCommitMaxBatchSize = maxBatchSize;
+    }
+
+    public int getLockStripesCount() {
+        return lockStripesCount;
+    }
+
+    /**
+     * Sets amount of locks coordinating operations on the same key, 1024 by default.
+     * More stripes make unrelated keys share a lock less often.
+     *
+     * @param lockStripesCount locks amount, power of two.
+     */
+    public void setLockStripesCount(int lockStripesCount) {
+        if (lockStripesCount <= 0 || Integer.bitCount(lockStripesCount) != 1) {
+            throw new IllegalArgumentException("Lock stripes count must be power of two");
+        }
+        this.lockStripesCount = lockStripesCount;
+    }
+
+    public long getMappedReadThresholdBytes() {
+        return mappedReadThresholdBytes;
+    }
+
+    public int getMaxMappedObjectsCount() {
+        return maxMappedObjectsCount;
+    }
+
+    /**
+     * Enables serving range reads and channels of large object files from memory mappings, disabled by default.
+     * Mapped reads avoid system call per read, which pays off for many small random reads into big objects.
+     *
+     * @param thresholdBytes   min size of mapped object, 0 disables mapping.
+     * @param maxObjectsCount  max amount of objects mapped at once, the least recently read are unmapped first.
+     */
+    public void setMappedReads(long thresholdBytes, int maxObjectsCount) {
+        if (thresholdBytes < 0) throw new IllegalArgumentException("Mapped read threshold must be >= 0");
+        if (maxObjectsCount <= 0) throw new IllegalArgumentException("Mapped objects count must be > 0");
+        this.mappedReadThresholdBytes = thresholdBytes;
+        this.maxMappedObjectsCount = maxObjectsCount;
+    }
+
+    public long getObjectCacheCapacityBytes() {
+        return objectCacheCapacityBytes;
+    }
+
+    public int getObjectCacheMaxObjectSize() {
+        return objectCacheMaxObjectSize;
+    }
+
+    /**
+     * Enables off-heap cache of small objects consulted by readFile before the disk, disabled by default.
+     *
+     * @param capacityBytes  max amount of off-heap memory holding cached objects, 0 disables the cache.
+     * @param maxObjectSize  max size of cached object, 64 KB by default.
+     */
+    public void setObjectCache(long capacityBytes, int maxObjectSize) {
+        if (capacityBytes < 0) throw new IllegalArgumentException("Object cache capacity must be >= 0");
+        if (maxObjectSize <= 0) throw new IllegalArgumentException("Max cached object size must be > 0");
+        this.objectCacheCapacityBytes = capacityBytes;
+        this.objectCacheMaxObjectSize = maxObjectSize;
+    }
+
+    public int getMaxCachedChannelsCount() {
+        return maxCachedChannelsCount;
+    }
+
+    /**
+     * Enables cache of open object file channels shared by readers, disabled by default.
+     * Amount of cached channels is lowered to a quarter of the process file descriptor limit.
+     *
+     * @param maxCachedChannelsCount max amount of open cached channels, 0 disables the cache.
+     */
+    public void setMaxCachedChannelsCount(int maxCachedChannelsCount) {
+        if (maxCachedChannelsCount < 0) throw new IllegalArgumentException("Cached channels count must be >= 0");
+        this.maxCachedChannelsCount = maxCachedChannelsCount;
+    }
+
+    public boolean isIndexLookup() {
+        return isIndexLookup;
+    }
+
+    /**
+     * Makes reads and deletions report keys missing from the in-memory objects index
+     * without checking object file existence on disk, disabled by default.
+     * Index holds every stored key once objects stored before startup are accounted. After power loss
+     * with NONE durability it may miss files whose metadata journal records weren't synced,
+     * such files are invisible to reads when index lookups are enabled.
+     *
+     * @param isIndexLookup true to answer misses by the index.
+     */
+    public void setIndexLookup(boolean isIndexLookup) {
+        this.isIndexLookup = isIndexLookup;
+    }
+}
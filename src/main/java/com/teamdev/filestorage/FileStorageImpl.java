@@ -1,19 +1,29 @@
 package com.teamdev.filestorage;
 
 import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
-import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of abstract data storage that allows to store millions objects in one folder.
- * Storage represents folder hierarchy which is based on MD5 hash function.
+ * Storage represents folder hierarchy which is based on 128 bit key hash function (MD5 by default).
  * This means that storage allow to operate with 16^32 different file keys.
  * Please be aware that keys are case sensitive.
  *
@@ -21,30 +31,143 @@ import java.util.concurrent.*;
  */
 public class FileStorageImpl implements FileStorage {
 
+    /**
+     * Max amount of bytes copied between two free space checks.
+     */
+    private static final int CHUNK_SIZE = BufferPool.MAX_BUFFER_SIZE;
+    /**
+     * Max attempts to create temporary file in a folder pruned concurrently.
+     */
+    private static final int MAX_CREATE_ATTEMPTS = 8;
+    /**
+     * File in the root folder locked by the storage using the folder.
+     */
+    static final String LOCK_FILE_NAME = "storage.lock";
+    /**
+     * Max amount of bytes kept by every shared buffer pool.
+     */
+    private static final long MAX_POOLED_BYTES = 64 * 1024 * 1024;
+    /**
+     * Buffers for STREAM write mode shared by all storages.
+     */
+    private static final BufferPool heapBufferPool = new BufferPool(false, MAX_POOLED_BYTES);
+    /**
+     * Buffers for CHANNEL write mode shared by all storages.
+     */
+    private static final BufferPool directBufferPool = new BufferPool(true, MAX_POOLED_BYTES);
+
     /**
      * Root folder on local disk.
      */
     private final File rootFolder;
     /**
-     * Allowed for usage space in bytes.
+     * Exclusive lock of the root folder held until the storage is closed.
+     */
+    private final FileLock rootLock;
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    /**
+     * Maps keys to object files inside root folder.
+     */
+    private final PathEncoder pathEncoder;
+    /**
+     * Allowed for usage, used and reserved by unfinished writes space in bytes.
+     */
+    private final SpaceLedger spaceLedger;
+    /**
+     * Metadata of stored objects.
+     */
+    private final Map<KeyHash, ObjectMetadata> objects = new ConcurrentHashMap<KeyHash, ObjectMetadata>();
+    /**
+     * Chooses objects deleted by clean.
+     */
+    private final EvictionPolicy evictionPolicy;
+    /**
+     * Persists objects metadata, null if checkpoints are disabled.
+     */
+    private final MetadataCheckpoint metadataCheckpoint;
+    /**
+     * Serializes checkpoint writes. Journal appends are not blocked by checkpoint,
+     * checkpoint takes journal monitor only while rotating journal.
+     */
+    private final Object checkpointLock = new Object();
+    /**
+     * Writes checkpoints periodically, null until recovery is finished or if checkpoints are disabled.
+     */
+    private volatile ScheduledExecutorService checkpointExecutor;
+    /**
+     * Deletes files awaiting for expiration.
+     */
+    private final FileExpirationMonitor expirationMonitor;
+    /**
+     * Evicts objects in background when space crosses high watermark, null if disabled.
      */
-    private final long allocatedSpace;
+    private final SpaceReclaimer spaceReclaimer;
     /**
-     * Currently used space in bytes.
+     * Serves writers waiting for space.
      */
-    private volatile long usedSpace = 0;
+    private final SpacePressure spacePressure;
     /**
-     * Files awaiting for deleting.
+     * Coordinates operations on the same key.
      */
-    private final Map<String, Date> expiringFiles = new ConcurrentHashMap<String, Date>();
+    private final KeyLockTable keyLocks;
     /**
-     * Files sorted by creation time.
+     * Deletes evicted objects in parallel.
      */
-    private final Map<FileTime, File> cachedFiles = new ConcurrentSkipListMap<FileTime, File>();
+    private final StorageCleaner storageCleaner;
     /**
-     * Executor for FileExpirationMonitor.
+     * Segment files of packed small objects, null if packing was never enabled for the root folder.
      */
-    private ExecutorService monitoringExecutor = Executors.newSingleThreadExecutor();
+    private final SegmentStore segmentStore;
+    /**
+     * Compacts segments in background, null if there are no segments.
+     */
+    private final SegmentCompactor segmentCompactor;
+    /**
+     * Memory mappings of large object files, null if mapped reads are disabled.
+     */
+    private final MappedObjects mappedObjects;
+    /**
+     * Off-heap cache of small objects read by readFile, null if disabled.
+     */
+    private final ObjectCache objectCache;
+    /**
+     * Open channels of object files shared by readers, null if disabled.
+     */
+    private final ChannelCache channelCache;
+    /**
+     * Deletes orphan temporary files after recovery from checkpoint, null if not started.
+     */
+    private volatile Thread sweepingThread;
+    /**
+     * True if keys missing from the index are reported missing without checking the disk.
+     */
+    private final boolean isIndexLookup;
+    private final AtomicLong indexedMissesCount = new AtomicLong();
+    private final int packingThresholdBytes;
+    private final long stallTimeoutMillis;
+    private final DurabilityMode durabilityMode;
+    /**
+     * Part of temporary file names written by this storage instance.
+     */
+    private final String temporaryFileMarker = "." + Long.toHexString(new Random().nextLong() & Long.MAX_VALUE) + ".";
+    private final AtomicLong temporaryFilesCount = new AtomicLong();
+    /**
+     * Syncs segments and metadata journal for groups of saves, null unless durability mode is GROUP.
+     */
+    private final GroupCommit groupCommit;
+    /**
+     * Way of moving object bytes to disk.
+     */
+    private volatile WriteMode writeMode = WriteMode.STREAM;
+    /**
+     * Released when objects stored before startup are accounted.
+     */
+    private final CountDownLatch recoveryLatch = new CountDownLatch(1);
+    private volatile RecoveryReport recoveryReport;
+    /**
+     * Amount of deleted temporary files left by unfinished writes of previous runs.
+     */
+    private final AtomicLong sweptOrphansCount = new AtomicLong();
 
     /**
      * Creates a new FileStorage instance with the specified parameters.
@@ -54,13 +177,208 @@ public class FileStorageImpl implements FileStorage {
      * @throws IllegalArgumentException if passed arguments is invalid.
      */
     public FileStorageImpl(String rootPath, long bytes) {
+        this(rootPath, bytes, new FileStorageConfig());
+    }
+
+    /**
+     * Creates a new FileStorage instance which spreads keys by the specified hasher.
+     * Hasher is recorded in the root folder on first usage and can't be changed later.
+     *
+     * @param rootPath  Root folder pathname string
+     * @param bytes     Allowed for usage space in bytes
+     * @param keyHasher Key hasher, or null to use recorded one (MD5 for a new storage)
+     * @throws IllegalArgumentException if passed arguments is invalid
+     *                                  or hasher differs from the recorded one.
+     */
+    public FileStorageImpl(String rootPath, long bytes, KeyHasher keyHasher) {
+        this(rootPath, bytes, createConfig(keyHasher));
+    }
+
+    /**
+     * Creates a new FileStorage instance with the specified configuration.
+     * Objects already stored in the root folder are accounted according to configured recovery mode.
+     *
+     * @param rootPath Root folder pathname string
+     * @param bytes    Allowed for usage space in bytes
+     * @param config   Storage configuration
+     * @throws IllegalArgumentException if passed arguments is invalid
+     *                                  or hasher differs from the recorded one.
+     */
+    public FileStorageImpl(String rootPath, long bytes, FileStorageConfig config) {
         File rootFolder = new File(rootPath);
         validateRootPathName(rootFolder);
+        if (bytes <= 0) throw new IllegalArgumentException("Bytes argument must be > 0");
+
         this.rootFolder = rootFolder;
+        this.rootLock = lockRootFolder(rootFolder);
+        this.spaceLedger = new SpaceLedger(bytes);
+        try {
+            this.pathEncoder = new PathEncoder(rootFolder, LayoutDescriptor.resolveHasher(rootFolder, config.getKeyHasher()));
+        } catch (IllegalArgumentException e) {
+            releaseRootLock();
+            throw e;
+        }
+        this.expirationMonitor = new FileExpirationMonitor(this, rootFolder);
+        this.metadataCheckpoint = config.getCheckpointIntervalMillis() > 0 ? new MetadataCheckpoint(rootFolder) : null;
+        this.evictionPolicy = config.getEvictionPolicy() != null ? config.getEvictionPolicy() : new FifoEvictionPolicy();
+        this.spaceReclaimer = config.getReclaimHighWatermark() > 0 ? new SpaceReclaimer(this, spaceLedger, config) : null;
+        this.spacePressure = new SpacePressure(spaceLedger, spaceReclaimer);
+        this.stallTimeoutMillis = config.getStallTimeoutMillis();
+        this.packingThresholdBytes = config.getPackingThresholdBytes();
+        this.segmentStore = packingThresholdBytes > 0 || new File(rootFolder, SegmentStore.FOLDER_NAME).isDirectory()
+                ? new SegmentStore(rootFolder, config.getSegmentSizeBytes()) : null;
+        this.segmentCompactor = segmentStore != null ? new SegmentCompactor(segmentStore, objects,
+                new SegmentStore.Listener() {
+                    @Override
+                    public void onRelocated(ObjectMetadata metadata) {
+                        if (metadataCheckpoint == null) return;
+                        try {
+                            metadataCheckpoint.put(metadata);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+
+                    @Override
+                    public void onCopiesSynced() throws IOException {
+                        if (metadataCheckpoint != null && durabilityMode != DurabilityMode.NONE) {
+                            metadataCheckpoint.sync();
+                        }
+                    }
+                }, config) : null;
+        this.durabilityMode = config.getDurabilityMode();
+        this.groupCommit = durabilityMode == DurabilityMode.GROUP ? createGroupCommit(config) : null;
+        this.keyLocks = new KeyLockTable(config.getLockStripesCount());
+        this.mappedObjects = config.getMappedReadThresholdBytes() > 0
+                ? new MappedObjects(config.getMappedReadThresholdBytes(), config.getMaxMappedObjectsCount()) : null;
+        this.objectCache = config.getObjectCacheCapacityBytes() > 0
+                ? new ObjectCache(config.getObjectCacheCapacityBytes(), config.getObjectCacheMaxObjectSize()) : null;
+        this.channelCache = config.getMaxCachedChannelsCount() > 0 ? new ChannelCache(config.getMaxCachedChannelsCount()) : null;
+        this.isIndexLookup = config.isIndexLookup();
+        this.storageCleaner = new StorageCleaner(rootFolder, pathEncoder, config.getCleanParallelism(), objects, keyLocks,
+                new StorageCleaner.Listener() {
+                    @Override
+                    public void onDeleting(ObjectMetadata object) {
+                        if (channelCache != null) channelCache.invalidate(object.keyHash);
+                    }
+
+                    @Override
+                    public void onRemoved(ObjectMetadata object) {
+                        accountRemovedObjects(Collections.singletonList(object));
+                    }
+
+                    @Override
+                    public void onFailed(ObjectMetadata object) {
+                        if (objects.get(object.keyHash) == object) evictionPolicy.onAdd(object);
+                    }
+                });
+        if (spaceReclaimer != null) spaceReclaimer.setSpacePressure(spacePressure);
+        spaceLedger.setSpaceFreedListener(new Runnable() {
+            @Override
+            public void run() {
+                spacePressure.onSpaceFreed();
+            }
+        });
+        startRecovery(config);
+    }
+
+    /**
+     * Takes exclusive lock of the root folder, so that two storages never append to the same journals.
+     *
+     * @throws IllegalArgumentException if the root folder is used by another storage.
+     */
+    private static FileLock lockRootFolder(File rootFolder) {
+        try {
+            final FileChannel channel = FileChannel.open(new File(rootFolder, LOCK_FILE_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = null;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                /*locked by storage of this process*/
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IllegalArgumentException("Path \"" + rootFolder + "\" is used by another storage");
+            }
+            return lock;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Path \"" + rootFolder + "\" can't be locked", e);
+        }
+    }
+
+    private void releaseRootLock() {
+        try {
+            rootLock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops background services, closes segments and journals and releases the root folder.
+     * Waits for recovery, checkpoint, reclaiming, cleaning, expiration, compaction, sweeping and group commit
+     * in progress, so no thread writes under the root folder after it is released.
+     * If the thread is interrupted while waiting, files are closed but the root folder stays locked
+     * until the process exits. Storage must not be used after it is closed.
+     */
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) return;
+        waitForRecovery();
+        if (checkpointExecutor != null) checkpointExecutor.shutdownNow();
+        boolean isStopped = false;
+        try {
+            stopBackgroundServices();
+            isStopped = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (checkpointLock) {
+            if (channelCache != null) channelCache.close();
+            if (objectCache != null) objectCache.close();
+            if (mappedObjects != null) mappedObjects.close();
+            try {
+                if (metadataCheckpoint != null) metadataCheckpoint.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                if (segmentStore != null) segmentStore.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (isStopped) releaseRootLock();
+    }
+
+    /**
+     * Stops services in order of their dependencies: reclaimer and writers waiting for space feed the cleaner,
+     * cleaner and expiration cancel scheduled expirations, group commit syncs segments and journal.
+     */
+    private void stopBackgroundServices() throws InterruptedException {
+        if (spaceReclaimer != null) spaceReclaimer.close();
+        spacePressure.close();
+        storageCleaner.close();
+        expirationMonitor.close();
+        if (segmentCompactor != null) segmentCompactor.close();
+        final Thread thread = sweepingThread;
+        if (thread != null) thread.join();
+        if (groupCommit != null) groupCommit.close();
+    }
+
+    private GroupCommit createGroupCommit(FileStorageConfig config) {
+        final List<GroupCommit.Syncable> logs = new ArrayList<GroupCommit.Syncable>();
+        if (segmentStore != null) logs.add(segmentStore);
+        if (metadataCheckpoint != null) logs.add(metadataCheckpoint);
+        logs.add(expirationMonitor.getJournal());
+        return new GroupCommit(logs, config.getGroupCommitWindowMillis(), config.getGroupCommitMaxBatchSize());
+    }
 
-        if (bytes > 0) {
-            this.allocatedSpace = bytes;
-        } else throw new IllegalArgumentException("Bytes argument must be > 0");
+    private static FileStorageConfig createConfig(KeyHasher keyHasher) {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setKeyHasher(keyHasher);
+        return config;
     }
 
     private void validateRootPathName(File rootFolder){
@@ -71,6 +389,188 @@ public class FileStorageImpl implements FileStorage {
         }
     }
 
+    private void startRecovery(final FileStorageConfig config) {
+        final Runnable recoveryTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recover(config);
+                } finally {
+                    recoveryLatch.countDown();
+                }
+            }
+        };
+        if (config.getRecoveryMode() == RecoveryMode.BACKGROUND) {
+            final Thread recoveryThread = new Thread(recoveryTask, "FileStorageRecovery");
+            recoveryThread.setDaemon(true);
+            recoveryThread.start();
+        } else recoveryTask.run();
+    }
+
+    /**
+     * Loads objects metadata from checkpoint, or scans folder tree and segments if checkpoint is missing or corrupted.
+     */
+    private void recover(FileStorageConfig config) {
+        final long startTime = System.nanoTime();
+        boolean isFromCheckpoint = false;
+        if (metadataCheckpoint != null) {
+            try {
+                isFromCheckpoint = metadataCheckpoint.load(objects);
+            } catch (IOException e) {
+                e.printStackTrace();
+                objects.clear();
+            }
+        }
+        if (!isFromCheckpoint) {
+            new StorageRecovery(rootFolder, config.getRecoveryParallelism(), new StorageRecovery.Listener() {
+                @Override
+                public void onFileFound(File file, BasicFileAttributes attributes) {
+                    final KeyHash keyHash = PathEncoder.parseHash(file);
+                    if (keyHash == null) return;
+                    objects.put(keyHash, new ObjectMetadata(keyHash, attributes.size(),
+                            attributes.creationTime().toMillis(), 0, attributes.lastAccessTime().toMillis()));
+                }
+
+                @Override
+                public void onTemporaryFileFound(File file) {
+                    deleteOrphan(file);
+                }
+            }).run();
+        }
+        if (segmentStore != null) {
+            try {
+                segmentStore.recover(objects, isFromCheckpoint);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        long bytes = 0;
+        for (ObjectMetadata metadata : objects.values()) {
+            bytes += metadata.size;
+        }
+        final RecoveryReport report = new RecoveryReport(objects.size(), bytes, System.nanoTime() - startTime,
+                isFromCheckpoint);
+
+        final List<ObjectMetadata> recovered = new ArrayList<ObjectMetadata>(objects.values());
+        Collections.sort(recovered, new Comparator<ObjectMetadata>() {
+            @Override
+            public int compare(ObjectMetadata first, ObjectMetadata second) {
+                return first.lastAccessTime < second.lastAccessTime ? -1 : first.lastAccessTime == second.lastAccessTime ? 0 : 1;
+            }
+        });
+        for (ObjectMetadata metadata : recovered) {
+            evictionPolicy.onAdd(metadata);
+        }
+        spaceLedger.recover(report.getFilesCount(), report.getBytes());
+        recoveryReport = report;
+        if (spaceReclaimer != null) spaceReclaimer.onSpaceClaimed();
+
+        if (metadataCheckpoint != null) {
+            try {
+                metadataCheckpoint.open();
+                if (!report.isFromCheckpoint()) metadataCheckpoint.write(objects.values());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            startCheckpointing(config.getCheckpointIntervalMillis());
+        }
+        if (segmentCompactor != null) segmentCompactor.onSegmentsChanged();
+        if (isFromCheckpoint) startSweeping(config.getRecoveryParallelism());
+    }
+
+    /**
+     * Deletes temporary files of unfinished writes in background. Folder tree is walked only
+     * when metadata is loaded from checkpoint, otherwise orphans are deleted by recovery scan.
+     */
+    private void startSweeping(final int parallelism) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                new StorageRecovery(rootFolder, parallelism, new StorageRecovery.Listener() {
+                    @Override
+                    public void onFileFound(File file, BasicFileAttributes attributes) {
+                    }
+
+                    @Override
+                    public void onTemporaryFileFound(File file) {
+                        deleteOrphan(file);
+                    }
+                }, false).run();
+            }
+        }, "FileStorageSweeper");
+        thread.setDaemon(true);
+        thread.start();
+        sweepingThread = thread;
+    }
+
+    private void deleteOrphan(File temporaryFile) {
+        if (isOrphan(temporaryFile) && temporaryFile.delete()) sweptOrphansCount.incrementAndGet();
+    }
+
+    private void startCheckpointing(long intervalMillis) {
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorageCheckpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkpoint();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        checkpointExecutor = executor;
+    }
+
+    /**
+     * Writes metadata checkpoint immediately, so the next startup doesn't need to replay long journal.
+     * Does nothing if checkpoints are disabled.
+     */
+    public void checkpoint() {
+        if (metadataCheckpoint == null) return;
+        waitForRecovery();
+        synchronized (checkpointLock) {
+            if (isClosed.get()) return;
+            try {
+                metadataCheckpoint.write(objects.values());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Waits until objects stored before startup are accounted.
+     * Saving, deleting and cleaning wait for it implicitly.
+     *
+     * @return recovery result.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public RecoveryReport awaitRecovery() throws InterruptedException {
+        recoveryLatch.await();
+        return recoveryReport;
+    }
+
+    /**
+     * Returns recovery result.
+     *
+     * @return recovery result, or null if recovery is still in progress.
+     */
+    public RecoveryReport getRecoveryReport() {
+        return recoveryReport;
+    }
+
+    private void waitForRecovery() {
+        try {
+            recoveryLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Reads object from InputStream and saves it to the storage.
      *
@@ -85,47 +585,359 @@ public class FileStorageImpl implements FileStorage {
     public boolean saveFile(String key, InputStream inputStream, long millis,
                             CallBack callBack) throws FileAlreadyExistsException, NotEnoughFreeSpaceException {
 
-        final File file = getFile(key);
-        if (file.exists()) {
+        waitForRecovery();
+        final KeyHash keyHash = getKeyHash(key);
+        final File file = pathEncoder.getFile(keyHash);
+        if (objects.containsKey(keyHash) || file.exists()) {
             throw new FileAlreadyExistsException("File with key " + key + " already exists");
         }
 
-        BufferedOutputStream bufferedOutputStream = null;
+        Closeable output = null;
+        File temporaryFile = null;
+        SpaceLedger.Reservation reservation = null;
         try {
             if (inputStream.available() == 0) {
                 throw new IllegalArgumentException("InputStream is empty");
             }
-            checkEnoughFreeSpace(inputStream.available(), callBack);
-            if (!createFile(file)) return false;
+            if (segmentStore != null && inputStream.available() <= packingThresholdBytes) {
+                final ByteBuffer buffer = heapBufferPool.acquire(packingThresholdBytes + 1);
+                try {
+                    final int length = readFully(inputStream, buffer.array(), packingThresholdBytes + 1);
+                    if (length <= packingThresholdBytes) {
+                        return savePacked(key, keyHash, buffer.array(), length, millis, callBack);
+                    }
+                    inputStream = new SequenceInputStream(
+                            new ByteArrayInputStream(Arrays.copyOf(buffer.array(), length)), inputStream);
+                } finally {
+                    heapBufferPool.release(buffer);
+                }
+            }
+            reservation = reserveSpace(inputStream.available(), callBack);
+            temporaryFile = new File(file.getParentFile(),
+                    file.getName() + temporaryFileMarker + temporaryFilesCount.incrementAndGet() + PathEncoder.TEMP_EXT);
+            final FileChannel fileChannel = createFile(temporaryFile);
+            output = fileChannel;
 
-            final byte[] buffer = new byte[1024 * 1024];
-            final BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-            bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(file));
-            int readLength;
-            while ((readLength = bufferedInputStream.read(buffer)) > 0) {
-                checkEnoughFreeSpace(inputStream.available(), callBack);
-                bufferedOutputStream.write(buffer, 0, readLength);
-                usedSpace += readLength;
+            final long writtenBytes;
+            if (writeMode == WriteMode.CHANNEL) {
+                writtenBytes = writeChannel(inputStream, fileChannel, reservation, callBack);
+            } else {
+                writtenBytes = writeStream(inputStream, Channels.newOutputStream(fileChannel), reservation, callBack);
             }
-            bufferedOutputStream.close();
+            if (durabilityMode != DurabilityMode.NONE) fileChannel.force(true);
+            output.close();
 
-            if (millis > 0) addExpiringFile(key, millis);
-            return true;
+            final ObjectMetadata metadata;
+            keyLocks.lockWrite(keyHash);
+            try {
+                publish(temporaryFile, file, key);
+                final long currentTime = System.currentTimeMillis();
+                metadata = new ObjectMetadata(keyHash, writtenBytes, currentTime,
+                        millis > 0 ? currentTime + millis : 0, currentTime);
+                if (!addObject(metadata)) {
+                    /*packed object with the same key is saved concurrently*/
+                    if (!file.delete()) file.deleteOnExit();
+                    throw new FileAlreadyExistsException("File with key " + key + " already exists");
+                }
+                reservation.commit(writtenBytes);
+                if (millis > 0) addExpiringFile(metadata);
+            } finally {
+                keyLocks.unlockWrite(keyHash);
+            }
+            if (durabilityMode != DurabilityMode.NONE) syncFolder(file.getParentFile());
+            return commitSaved(metadata);
 
+        } catch (FileAlreadyExistsException e) {
+            processUnfinishedFile(output, temporaryFile);
+            throw e;
         } catch (NotEnoughFreeSpaceException e) {
-            processUnfinishedFile(bufferedOutputStream, file);
+            processUnfinishedFile(output, temporaryFile);
             throw new NotEnoughFreeSpaceException();
         } catch (IOException e) {
             e.printStackTrace();
-            processUnfinishedFile(bufferedOutputStream, file);
+            processUnfinishedFile(output, temporaryFile);
             return false;
+        } finally {
+            if (reservation != null) reservation.release();
+        }
+    }
+
+    /**
+     * Reads stream until the specified amount of bytes is read or stream ends.
+     *
+     * @return amount of read bytes.
+     */
+    private static int readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int readBytes = 0;
+        int readLength;
+        while (readBytes < length && (readLength = inputStream.read(buffer, readBytes, length - readBytes)) > 0) {
+            readBytes += readLength;
+        }
+        return readBytes;
+    }
+
+    /**
+     * Appends small object to the active segment.
+     */
+    private boolean savePacked(String key, KeyHash keyHash, byte[] bytes, int length, long millis,
+                               CallBack callBack) throws IOException {
+        final SpaceLedger.Reservation reservation = reserveSpace(length, callBack);
+        try {
+            final long currentTime = System.currentTimeMillis();
+            final ObjectMetadata metadata = new ObjectMetadata(keyHash, length, currentTime,
+                    millis > 0 ? currentTime + millis : 0, currentTime);
+            keyLocks.lockWrite(keyHash);
+            try {
+                if (!segmentStore.append(metadata, bytes, objects)) {
+                    throw new FileAlreadyExistsException("File with key " + key + " already exists");
+                }
+                reservation.commit(length);
+                indexObject(metadata);
+                if (millis > 0) addExpiringFile(metadata);
+            } finally {
+                keyLocks.unlockWrite(keyHash);
+            }
+            return commitSaved(metadata);
+        } finally {
+            reservation.release();
+        }
+    }
+
+    /**
+     * Waits until saved object and its metadata reach disk as durability mode requires.
+     * Object bytes stored in own file are synced by the writer before.
+     *
+     * @return false if logs can't be synced, object is deleted then, so failed save is never visible.
+     */
+    private boolean commitSaved(ObjectMetadata metadata) {
+        try {
+            if (durabilityMode == DurabilityMode.GROUP) groupCommit.commit();
+            else if (durabilityMode == DurabilityMode.PER_OBJECT) {
+                if (segmentStore != null) segmentStore.sync();
+                if (metadataCheckpoint != null) metadataCheckpoint.sync();
+                expirationMonitor.getJournal().sync();
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            rollbackSaved(metadata);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes object whose save wasn't committed, unless it is deleted or saved again meanwhile.
+     */
+    private void rollbackSaved(ObjectMetadata metadata) {
+        final KeyHash keyHash = metadata.keyHash;
+        keyLocks.lockWrite(keyHash);
+        try {
+            if (objects.get(keyHash) != metadata) return;
+            expirationMonitor.cancel(keyHash);
+            if (metadata.isPacked()) {
+                deletePacked(Collections.singletonList(metadata));
+            } else deleteFile(keyHash, pathEncoder.getFile(keyHash));
+        } catch (FileNotFoundException e) {
+            /*deleted concurrently*/
+        } finally {
+            keyLocks.unlockWrite(keyHash);
+        }
+    }
+
+    /**
+     * Records deletion of packed objects in segments and accounts them.
+     * Objects are removed from index by segment store, atomically with respect to compaction.
+     * Must be called under write locks of the keys.
+     *
+     * @return amount of deleted bytes.
+     */
+    private long deletePacked(List<ObjectMetadata> packed) {
+        if (packed.isEmpty()) return 0;
+        final List<ObjectMetadata> deleted = new ArrayList<ObjectMetadata>(packed.size());
+        long deletedBytes = 0;
+        for (ObjectMetadata metadata : packed) {
+            try {
+                if (segmentStore.delete(metadata, objects)) {
+                    deleted.add(metadata);
+                    deletedBytes += metadata.size;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        accountRemovedObjects(deleted);
+        segmentCompactor.onSegmentsChanged();
+        return deletedBytes;
+    }
+
+    /**
+     * Puts object into the index unless the key is already stored.
+     *
+     * @return false if the key is already stored.
+     */
+    private boolean addObject(ObjectMetadata metadata) {
+        if (objects.putIfAbsent(metadata.keyHash, metadata) != null) return false;
+        indexObject(metadata);
+        return true;
+    }
+
+    /**
+     * Accounts object already put into the index by eviction policy and metadata journal.
+     */
+    private void indexObject(ObjectMetadata metadata) {
+        evictionPolicy.onAdd(metadata);
+        if (objectCache != null) objectCache.invalidate(metadata.keyHash);
+        if (channelCache != null) channelCache.invalidate(metadata.keyHash);
+        if (metadataCheckpoint == null) return;
+        try {
+            metadataCheckpoint.put(metadata);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void touchObject(KeyHash keyHash) {
+        final ObjectMetadata metadata = objects.get(keyHash);
+        if (metadata == null) return;
+        metadata.lastAccessTime = System.currentTimeMillis();
+        evictionPolicy.onAccess(metadata);
+    }
+
+    private void removeObject(KeyHash keyHash) {
+        final ObjectMetadata metadata = objects.remove(keyHash);
+        if (metadata == null) return;
+        evictionPolicy.onRemove(metadata);
+        if (mappedObjects != null) mappedObjects.remove(metadata);
+        if (objectCache != null) objectCache.invalidate(keyHash);
+        if (channelCache != null) channelCache.invalidate(keyHash);
+        if (metadataCheckpoint == null) return;
+        try {
+            metadataCheckpoint.remove(keyHash);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    private void checkEnoughFreeSpace(long availableBytes, CallBack callBack) throws NotEnoughFreeSpaceException{
-        final long notEnoughBytes = availableBytes - getFreeSpace();
-        final boolean isEnough = availableBytes <= getFreeSpace() || callBack != null && callBack.isEnough(notEnoughBytes);
-        if (!isEnough) throw new NotEnoughFreeSpaceException();
+    /**
+     * Frees space of objects already removed from index, cancels their expirations and journals their removals at once.
+     * Must be called under write locks of the keys, so that removal is never journaled after concurrent save of the key.
+     */
+    private void accountRemovedObjects(List<ObjectMetadata> removed) {
+        final List<KeyHash> keyHashes = new ArrayList<KeyHash>(removed.size());
+        for (ObjectMetadata metadata : removed) {
+            evictionPolicy.onRemove(metadata);
+            expirationMonitor.cancel(metadata.keyHash);
+            if (mappedObjects != null) mappedObjects.remove(metadata);
+            if (objectCache != null) objectCache.invalidate(metadata.keyHash);
+            if (channelCache != null) channelCache.invalidate(metadata.keyHash);
+            spaceLedger.free(metadata.size);
+            keyHashes.add(metadata.keyHash);
+        }
+        if (metadataCheckpoint == null) return;
+        try {
+            metadataCheckpoint.removeAll(keyHashes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return amount of written bytes.
+     */
+    private long writeStream(InputStream inputStream, OutputStream outputStream,
+                             SpaceLedger.Reservation reservation, CallBack callBack) throws IOException {
+        final ByteBuffer byteBuffer = heapBufferPool.acquire(inputStream.available());
+        try {
+            final byte[] buffer = byteBuffer.array();
+            long writtenBytes = 0;
+            int readLength;
+            while ((readLength = inputStream.read(buffer)) > 0) {
+                writtenBytes += readLength;
+                ensureReserved(reservation, writtenBytes, inputStream.available(), callBack);
+                outputStream.write(buffer, 0, readLength);
+            }
+            return writtenBytes;
+        } finally {
+            heapBufferPool.release(byteBuffer);
+        }
+    }
+
+    /**
+     * Copies object to the file channel. FileInputStream source is transferred channel to channel without
+     * heap copies, any other source is read by Channels.newChannel, which copies it through heap array
+     * into pooled direct buffer.
+     *
+     * @return amount of written bytes.
+     */
+    private long writeChannel(InputStream inputStream, FileChannel fileChannel,
+                              SpaceLedger.Reservation reservation, CallBack callBack) throws IOException {
+        long writtenBytes = 0;
+        if (inputStream instanceof FileInputStream) {
+            final FileChannel sourceChannel = ((FileInputStream) inputStream).getChannel();
+            long transferred;
+            while ((transferred = fileChannel.transferFrom(sourceChannel, writtenBytes, CHUNK_SIZE)) > 0) {
+                writtenBytes += transferred;
+                ensureReserved(reservation, writtenBytes, inputStream.available(), callBack);
+            }
+            return writtenBytes;
+        }
+        final ReadableByteChannel sourceChannel = Channels.newChannel(inputStream);
+        final ByteBuffer buffer = directBufferPool.acquire(inputStream.available());
+        try {
+            int readLength;
+            while ((readLength = sourceChannel.read(buffer)) > 0) {
+                writtenBytes += readLength;
+                ensureReserved(reservation, writtenBytes, inputStream.available(), callBack);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                buffer.clear();
+            }
+            return writtenBytes;
+        } finally {
+            directBufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reserves space for the object. If there is not enough of it, publishes space request
+     * served by callback and background reclaimer concurrently, and waits for it until stall timeout.
+     */
+    private SpaceLedger.Reservation reserveSpace(final long bytes, CallBack callBack) throws NotEnoughFreeSpaceException {
+        SpaceLedger.Reservation reservation = spaceLedger.reserve(bytes);
+        if (reservation == null) {
+            reservation = spacePressure.request(bytes, new SpacePressure.Claim() {
+                @Override
+                public SpaceLedger.Reservation tryClaim() {
+                    return spaceLedger.reserve(bytes);
+                }
+            }, callBack).get(stallTimeoutMillis);
+        }
+        if (spaceReclaimer != null) spaceReclaimer.onSpaceClaimed();
+        return reservation;
+    }
+
+    /**
+     * Grows reservation if stream turned out to be longer than declared.
+     * Writer waits for space the same way as when reserving it.
+     *
+     * @param writtenBytes   amount of bytes read from stream so far.
+     * @param availableBytes amount of bytes stream declares to be still available.
+     */
+    private void ensureReserved(final SpaceLedger.Reservation reservation, long writtenBytes, long availableBytes,
+                                CallBack callBack) throws NotEnoughFreeSpaceException {
+        if (writtenBytes <= reservation.getReservedBytes()) return;
+        final long missingBytes = writtenBytes - reservation.getReservedBytes() + availableBytes;
+        if (!reservation.grow(missingBytes)) {
+            spacePressure.request(missingBytes, new SpacePressure.Claim() {
+                @Override
+                public SpaceLedger.Reservation tryClaim() {
+                    return reservation.grow(missingBytes) ? reservation : null;
+                }
+            }, callBack).get(stallTimeoutMillis);
+        }
+        if (spaceReclaimer != null) spaceReclaimer.onSpaceClaimed();
     }
 
     @Override
@@ -147,13 +959,121 @@ public class FileStorageImpl implements FileStorage {
     }
 
 
+    /**
+     * Selects the way object bytes are moved to disk by subsequent saveFile calls.
+     *
+     * @param writeMode write mode, STREAM by default.
+     */
+    public void setWriteMode(WriteMode writeMode) {
+        if (writeMode == null) throw new IllegalArgumentException("Write mode is null");
+        this.writeMode = writeMode;
+    }
+
+    /**
+     * Returns pool of heap buffers used by STREAM write mode of all storages.
+     * @return shared buffer pool.
+     */
+    public static BufferPool getHeapBufferPool() {
+        return heapBufferPool;
+    }
+
+    /**
+     * Returns pool of direct buffers used by CHANNEL write mode of all storages.
+     * @return shared buffer pool.
+     */
+    public static BufferPool getDirectBufferPool() {
+        return directBufferPool;
+    }
+
     /**
      * Returns byte representation of free space in this storage.
+     * Space reserved by unfinished saves is not free.
      * @return bytes amount.
      */
     @Override
     public long getFreeSpace() {
-        return allocatedSpace - usedSpace;
+        return spaceLedger.getFreeBytes();
+    }
+
+    /**
+     * Returns amount of objects in this storage.
+     * @return objects amount.
+     */
+    public long getObjectsCount() {
+        return spaceLedger.getObjectsCount();
+    }
+
+    /**
+     * Returns background reclaimer with its eviction and stall metrics.
+     * @return space reclaimer, or null if reclaiming is not configured.
+     */
+    public SpaceReclaimer getSpaceReclaimer() {
+        return spaceReclaimer;
+    }
+
+    /**
+     * Returns space pressure coordinator with metrics of writes waiting for space.
+     * @return space pressure coordinator.
+     */
+    public SpacePressure getSpacePressure() {
+        return spacePressure;
+    }
+
+    /**
+     * Returns segment compactor with compaction metrics.
+     * @return segment compactor, or null if packing was never enabled for the root folder.
+     */
+    public SegmentCompactor getSegmentCompactor() {
+        return segmentCompactor;
+    }
+
+    /**
+     * Returns amount of temporary files left by unfinished writes of previous runs and deleted on startup.
+     * Files are swept in background when metadata is loaded from checkpoint.
+     * @return amount of deleted temporary files.
+     */
+    public long getSweptOrphansCount() {
+        return sweptOrphansCount.get();
+    }
+
+    /**
+     * Returns off-heap cache of small objects with hit ratio and eviction metrics.
+     * @return object cache, or null if it is disabled.
+     */
+    public ObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * Returns cache of open object file channels with hit and eviction metrics.
+     * @return channel cache, or null if it is disabled.
+     */
+    public ChannelCache getChannelCache() {
+        return channelCache;
+    }
+
+    /**
+     * Returns amount of reads and deletions of missing keys answered by the index without touching the disk.
+     * @return amount of misses answered by the index.
+     */
+    public long getIndexedMissesCount() {
+        return indexedMissesCount.get();
+    }
+
+    /**
+     * Returns per-key lock table with contention metrics.
+     * @return lock table.
+     */
+    public KeyLockTable getKeyLocks() {
+        return keyLocks;
+    }
+
+    /**
+     * Returns group commit with sync metrics.
+     * @return group commit, or null unless durability mode is GROUP.
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
     }
 
     /**
@@ -165,9 +1085,258 @@ public class FileStorageImpl implements FileStorage {
      */
     @Override
     public InputStream readFile(String key) throws FileNotFoundException {
-        final File file = getFile(key);
-        checkFileExistence(file, key);
-        return new FileInputStream(file);
+        final KeyHash keyHash = getKeyHash(key);
+        if (segmentStore != null) waitForRecovery();
+        keyLocks.lockRead(keyHash);
+        try {
+            checkIndexed(keyHash, key);
+            final ObjectMetadata metadata = segmentStore != null || objectCache != null || channelCache != null
+                    ? objects.get(keyHash) : null;
+            if (objectCache != null && metadata != null && objectCache.isCacheable(metadata)) {
+                final InputStream inputStream = new ByteArrayInputStream(readCached(metadata, key));
+                touchObject(keyHash);
+                return inputStream;
+            }
+            if (metadata != null && metadata.isPacked()) {
+                final InputStream inputStream = new ByteArrayInputStream(readPacked(metadata, key));
+                touchObject(keyHash);
+                return inputStream;
+            }
+            final InputStream inputStream;
+            if (channelCache != null && metadata != null) {
+                inputStream = Channels.newInputStream(openCachedChannel(metadata, key));
+            } else {
+                final File file = pathEncoder.getFile(keyHash);
+                checkFileExistence(file, key);
+                inputStream = new FileInputStream(file);
+            }
+            touchObject(keyHash);
+            return inputStream;
+        } finally {
+            keyLocks.unlockRead(keyHash);
+        }
+    }
+
+    /**
+     * Reads part of object associated with the specified key. Packed object is read from its segment
+     * with one positional read, object file is read with one positional read or copied from its mapping.
+     *
+     * @param key    Key string associated with reading object.
+     * @param offset position of the first read byte in the object.
+     * @param length max amount of read bytes, less bytes are read if object ends earlier.
+     * @return buffer holding read bytes between its position and limit.
+     * @throws FileNotFoundException if object with specified key is not exists in storage.
+     * @throws IOException           if object can't be read.
+     */
+    @Override
+    public ByteBuffer readRange(String key, long offset, int length) throws IOException {
+        if (offset < 0) throw new IllegalArgumentException("Offset must be >= 0");
+        if (length < 0) throw new IllegalArgumentException("Length must be >= 0");
+        final KeyHash keyHash = getKeyHash(key);
+        if (segmentStore != null) waitForRecovery();
+        keyLocks.lockRead(keyHash);
+        try {
+            checkIndexed(keyHash, key);
+            final ObjectMetadata metadata = segmentStore != null || mappedObjects != null || channelCache != null
+                    ? objects.get(keyHash) : null;
+            final ByteBuffer buffer;
+            if (metadata != null && metadata.isPacked()) {
+                buffer = ByteBuffer.allocate(getRangeLength(metadata.size, offset, length));
+                if (buffer.hasRemaining()) segmentStore.read(metadata, offset, buffer);
+                buffer.flip();
+            } else if (mappedObjects != null && mappedObjects.isMapped(metadata)) {
+                buffer = readMapped(metadata, offset, length);
+            } else {
+                buffer = readFileRange(keyHash, metadata, key, offset, length);
+            }
+            touchObject(keyHash);
+            return buffer;
+        } finally {
+            keyLocks.unlockRead(keyHash);
+        }
+    }
+
+    /**
+     * Opens read-only channel to object associated with the specified key.
+     * Channel of packed or mapped object reads bytes from memory, channel of other objects reads object file.
+     * Channel remains readable after the object is deleted.
+     *
+     * @param key Key string associated with reading object.
+     * @return seekable channel positioned at the object start.
+     * @throws FileNotFoundException if object with specified key is not exists in storage.
+     * @throws IOException           if object can't be read.
+     */
+    @Override
+    public SeekableByteChannel openFile(String key) throws IOException {
+        final KeyHash keyHash = getKeyHash(key);
+        if (segmentStore != null) waitForRecovery();
+        keyLocks.lockRead(keyHash);
+        try {
+            checkIndexed(keyHash, key);
+            final ObjectMetadata metadata = segmentStore != null || mappedObjects != null || channelCache != null
+                    ? objects.get(keyHash) : null;
+            final SeekableByteChannel channel;
+            if (metadata != null && metadata.isPacked()) {
+                channel = new BufferChannel(new ByteBuffer[]{ByteBuffer.wrap(readPacked(metadata, key))},
+                        Integer.SIZE - 1, metadata.size);
+            } else if (mappedObjects != null && mappedObjects.isMapped(metadata)) {
+                channel = new BufferChannel(mappedObjects.map(metadata, pathEncoder.getFile(keyHash)),
+                        MappedObjects.REGION_SHIFT, metadata.size);
+            } else if (channelCache != null && metadata != null) {
+                channel = openCachedChannel(metadata, key);
+            } else {
+                final File file = pathEncoder.getFile(keyHash);
+                checkFileExistence(file, key);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            touchObject(keyHash);
+            return channel;
+        } finally {
+            keyLocks.unlockRead(keyHash);
+        }
+    }
+
+    /**
+     * Transfers object associated with the specified key to the channel.
+     *
+     * @see #transferTo(String, long, long, WritableByteChannel)
+     */
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        return transferTo(key, 0, Long.MAX_VALUE, target);
+    }
+
+    /**
+     * Transfers part of object associated with the specified key to the channel by {@link FileChannel#transferTo},
+     * so that operating system can move bytes from page cache to socket without copying them to user space.
+     * Packed object is transferred as the exact slice of its segment under read lock of the key.
+     * Object file is opened under read lock and transferred after it is released,
+     * so slow target doesn't hold writers of the key.
+     *
+     * @param key    Key string associated with reading object.
+     * @param offset position of the first transferred byte in the object.
+     * @param length max amount of transferred bytes, less bytes are transferred if object ends earlier.
+     * @param target channel receiving object bytes, expected to be in blocking mode.
+     * @return amount of transferred bytes, less than the range only if non-blocking target accepts no more bytes.
+     * @throws FileNotFoundException if object with specified key is not exists in storage.
+     * @throws IOException           if object can't be read or target can't be written.
+     */
+    @Override
+    public long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException {
+        if (offset < 0) throw new IllegalArgumentException("Offset must be >= 0");
+        if (length < 0) throw new IllegalArgumentException("Length must be >= 0");
+        final KeyHash keyHash = getKeyHash(key);
+        if (segmentStore != null) waitForRecovery();
+        final ChannelCache.Handle handle;
+        keyLocks.lockRead(keyHash);
+        try {
+            checkIndexed(keyHash, key);
+            final ObjectMetadata metadata = segmentStore != null || channelCache != null ? objects.get(keyHash) : null;
+            if (metadata != null && metadata.isPacked()) {
+                touchObject(keyHash);
+                final long count = Math.max(0, Math.min(length, metadata.size - offset));
+                return count > 0 ? segmentStore.transferTo(metadata, offset, count, target) : 0;
+            }
+            handle = acquireChannel(keyHash, metadata, key);
+            touchObject(keyHash);
+        } finally {
+            keyLocks.unlockRead(keyHash);
+        }
+        final FileChannel channel = handle.channel;
+        try {
+            final long count = Math.max(0, Math.min(length, channel.size() - offset));
+            long transferred = 0;
+            while (transferred < count) {
+                final long bytes = channel.transferTo(offset + transferred, count - transferred, target);
+                if (bytes <= 0) break;
+                transferred += bytes;
+            }
+            return transferred;
+        } finally {
+            releaseChannel(handle);
+        }
+    }
+
+    /**
+     * Returns slice of the mapping if range lies in one mapped region, copy of the range otherwise.
+     */
+    private ByteBuffer readMapped(ObjectMetadata metadata, long offset, int length) throws IOException {
+        final int rangeLength = getRangeLength(metadata.size, offset, length);
+        if (rangeLength == 0) return ByteBuffer.allocate(0);
+        final ByteBuffer[] regions = mappedObjects.map(metadata, pathEncoder.getFile(metadata.keyHash));
+        final int region = (int) (offset >>> MappedObjects.REGION_SHIFT);
+        final int regionOffset = (int) (offset - ((long) region << MappedObjects.REGION_SHIFT));
+        if (regionOffset + rangeLength <= regions[region].limit()) {
+            final ByteBuffer slice = regions[region].duplicate();
+            slice.position(regionOffset);
+            slice.limit(regionOffset + rangeLength);
+            return slice.slice();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(rangeLength);
+        final BufferChannel channel = new BufferChannel(regions, MappedObjects.REGION_SHIFT, metadata.size);
+        channel.position(offset);
+        channel.read(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer readFileRange(KeyHash keyHash, ObjectMetadata metadata, String key, long offset, int length)
+            throws IOException {
+        final ChannelCache.Handle handle = acquireChannel(keyHash, metadata, key);
+        final FileChannel channel = handle.channel;
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(getRangeLength(channel.size(), offset, length));
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) break;
+                position += read;
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            releaseChannel(handle);
+        }
+    }
+
+    /**
+     * Returns shared channel of object file from channel cache, or own channel of the file
+     * if the cache is disabled or object metadata isn't loaded yet. Handle must be released by {@link #releaseChannel}.
+     */
+    private ChannelCache.Handle acquireChannel(KeyHash keyHash, ObjectMetadata metadata, String key) throws IOException {
+        final File file = pathEncoder.getFile(keyHash);
+        try {
+            if (channelCache != null && metadata != null) return channelCache.acquire(metadata, file);
+            return new ChannelCache.Handle(metadata, FileChannel.open(file.toPath(), StandardOpenOption.READ), false);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("File with key \"" + key + "\" doesn't found");
+        }
+    }
+
+    private void releaseChannel(ChannelCache.Handle handle) throws IOException {
+        if (handle.isCached) channelCache.release(handle);
+        else handle.channel.close();
+    }
+
+    /**
+     * @return reader's own channel reading shared channel of object file.
+     */
+    private SeekableByteChannel openCachedChannel(ObjectMetadata metadata, String key) throws FileNotFoundException {
+        try {
+            return channelCache.open(metadata, pathEncoder.getFile(metadata.keyHash));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException("File with key \"" + key + "\" doesn't found");
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FileNotFoundException("File with key \"" + key + "\" can't be read");
+        }
+    }
+
+    /**
+     * @return amount of object bytes in the range, 0 if range starts after the object end.
+     */
+    private static int getRangeLength(long size, long offset, int length) {
+        return (int) Math.max(0, Math.min(length, size - offset));
     }
 
     /**
@@ -179,9 +1348,92 @@ public class FileStorageImpl implements FileStorage {
      */
     @Override
     public boolean deleteFile(String key) throws FileNotFoundException {
-        final File file = getFile(key);
-        checkFileExistence(file, key);
-        return deleteFile(file);
+        waitForRecovery();
+        final KeyHash keyHash = getKeyHash(key);
+        keyLocks.lockWrite(keyHash);
+        try {
+            checkIndexed(keyHash, key);
+            final ObjectMetadata metadata = objects.get(keyHash);
+            if (metadata != null && metadata.isPacked()) {
+                expirationMonitor.cancel(keyHash);
+                return deletePacked(Collections.singletonList(metadata)) > 0;
+            }
+            final File file = pathEncoder.getFile(keyHash);
+            checkFileExistence(file, key);
+            expirationMonitor.cancel(keyHash);
+            return deleteFile(keyHash, file);
+        } finally {
+            keyLocks.unlockWrite(keyHash);
+        }
+    }
+
+    /**
+     * Deletes file whose expiration time has come. Deadline is checked again under write lock of the key,
+     * so object deleted and saved again meanwhile is kept.
+     *
+     * @param keyHash  Hash of the key associated with expired object.
+     * @param deadline Expiration time the object was scheduled with.
+     */
+    void deleteExpiredFile(KeyHash keyHash, long deadline) {
+        waitForRecovery();
+        keyLocks.lockWrite(keyHash);
+        try {
+            final ObjectMetadata metadata = objects.get(keyHash);
+            /*expiration time is unknown for objects recovered by scan, the recorded deadline is trusted then*/
+            if (metadata != null && metadata.expirationTime != 0 && metadata.expirationTime != deadline) return;
+            if (!expirationMonitor.expire(keyHash, deadline)) return;
+            if (metadata != null && metadata.isPacked()) {
+                deletePacked(Collections.singletonList(metadata));
+                return;
+            }
+            final File file = pathEncoder.getFile(keyHash);
+            if (file.exists()) deleteFile(keyHash, file);
+        } catch (FileNotFoundException e) {
+            /*deleted concurrently*/
+        } finally {
+            keyLocks.unlockWrite(keyHash);
+        }
+    }
+
+    /**
+     * Returns object bytes from cache, reads them from segment or object file on miss and offers them to cache.
+     */
+    private byte[] readCached(ObjectMetadata metadata, String key) throws FileNotFoundException {
+        byte[] bytes = objectCache.get(metadata);
+        if (bytes != null) return bytes;
+        if (metadata.isPacked()) {
+            bytes = readPacked(metadata, key);
+        } else {
+            try {
+                bytes = Files.readAllBytes(pathEncoder.getFile(metadata.keyHash).toPath());
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException("File with key \"" + key + "\" doesn't found");
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new FileNotFoundException("File with key \"" + key + "\" can't be read");
+            }
+        }
+        objectCache.put(metadata, bytes);
+        return bytes;
+    }
+
+    private byte[] readPacked(ObjectMetadata metadata, String key) throws FileNotFoundException {
+        try {
+            return segmentStore.read(metadata);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FileNotFoundException("File with key \"" + key + "\" can't be read");
+        }
+    }
+
+    /**
+     * Reports key missing from the index without touching the disk, if index lookups are enabled
+     * and objects stored before startup are accounted. Must be called under lock of the key.
+     */
+    private void checkIndexed(KeyHash keyHash, String key) throws FileNotFoundException {
+        if (!isIndexLookup || recoveryLatch.getCount() > 0 || objects.containsKey(keyHash)) return;
+        indexedMissesCount.incrementAndGet();
+        throw new FileNotFoundException("File with key \"" + key + "\" doesn't found");
     }
 
     private void checkFileExistence(File file, String key) throws FileNotFoundException{
@@ -190,117 +1442,148 @@ public class FileStorageImpl implements FileStorage {
         }
     }
 
-    private boolean deleteFile(File file) throws FileNotFoundException {
+    private boolean deleteFile(KeyHash keyHash, File file) throws FileNotFoundException {
         final long fileSize = file.length();
+        if (channelCache != null) channelCache.invalidate(keyHash);
         boolean isDeleted = file.delete();
         if (isDeleted) {
-            usedSpace -= fileSize;
+            spaceLedger.free(fileSize);
+            removeObject(keyHash);
             deleteEmptyDirectories(file);
         }
         return isDeleted;
     }
 
     /**
-     * Cleans storage by specified bytes amount.
+     * Cleans storage by specified bytes amount. Eviction policy chooses objects first,
+     * then their files are deleted in parallel and emptied folders are pruned.
      *
      * @param bytesToClean amount of bytes desired to clean.
      * @return amount of successfully removed bytes.
      */
     @Override
     public long clean(long bytesToClean) {
-        if (isEmptyStorage()) return 0;
-
+        waitForRecovery();
         long cleanedBytes = 0;
-        for (Map.Entry<FileTime, File> fileEntry : cachedFiles.entrySet()) {
-            try {
-                final File oldFile = fileEntry.getValue();
-                final long fileSize = oldFile.length();
-                if(deleteFile(oldFile)){
-                    cachedFiles.remove(fileEntry.getKey());
-                    cleanedBytes += fileSize;
-                }
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
+        while (cleanedBytes < bytesToClean) {
+            final List<ObjectMetadata> victims = evictionPolicy.pollVictims(bytesToClean - cleanedBytes);
+            if (victims.isEmpty()) break;
+            final List<ObjectMetadata> packed = new ArrayList<ObjectMetadata>();
+            final List<ObjectMetadata> files = new ArrayList<ObjectMetadata>(victims.size());
+            for (ObjectMetadata victim : victims) {
+                (victim.isPacked() ? packed : files).add(victim);
             }
-            if ((cleanedBytes > bytesToClean) ||  isEmptyStorage()) break;
+            final long deletedBytes = deletePackedVictims(packed) + storageCleaner.delete(files);
+            if (deletedBytes == 0) break;
+            cleanedBytes += deletedBytes;
         }
         return cleanedBytes;
     }
 
-    private boolean isEmptyStorage(){
-        return cachedFiles.isEmpty() && !cacheFiles();
+    /**
+     * Deletes packed victims under write locks of their keys. Victims with locked keys are skipped.
+     *
+     * @return amount of deleted bytes.
+     */
+    private long deletePackedVictims(List<ObjectMetadata> victims) {
+        final List<ObjectMetadata> locked = new ArrayList<ObjectMetadata>(victims.size());
+        for (ObjectMetadata victim : victims) {
+            if (keyLocks.tryLockWrite(victim.keyHash)) locked.add(victim);
+            else if (objects.get(victim.keyHash) == victim) evictionPolicy.onAdd(victim);
+        }
+        try {
+            return deletePacked(locked);
+        } finally {
+            for (ObjectMetadata victim : locked) {
+                keyLocks.unlockWrite(victim.keyHash);
+            }
+        }
     }
 
-    /** Fills cachedFiles.
+    /**
+     * Creates and opens new file by single atomic open, creating its folders if needed.
+     * Folders created by concurrent writer are used as is, folders pruned by concurrent deletion are created again.
      *
-     * @return true if at least one file added to cachedFiles,
-     * otherwise false.
+     * @throws FileAlreadyExistsException if file already exists.
      */
-    private boolean cacheFiles(){
-        final File[] folders = rootFolder.listFiles();
-        final List<File> rootFolderList;
-        if (folders != null && folders.length > 0) {
-            rootFolderList = Arrays.asList(folders);
-        } else return false;
-
-        final Deque<File> foldersStack = new ArrayDeque<File>(rootFolderList);
-        while (!foldersStack.isEmpty()) {
-            final File childFolder = foldersStack.pop();
-            final File[] childsList = childFolder.listFiles();
-            if (childsList != null && childsList.length > 0) {
-                processChildsList(childsList, foldersStack);
+    private static FileChannel createFile(File file) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (!file.getParentFile().isDirectory()) createFolders(file.getParentFile());
+                return FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+                if (attempt == MAX_CREATE_ATTEMPTS) throw e;
             }
         }
-        return cachedFiles.size() > 0;
     }
 
-    private void processChildsList(File[] childsList, Deque<File> foldersStack) {
-        for (File child : childsList) {
-            if (child.isDirectory()) {
-                foldersStack.push(child);
-            } else if (child.isFile()) {
-                addToCachedFiles(child);
-            }
+    /**
+     * Creates folders of the path. Folder created and pruned by another thread meanwhile is reported
+     * as missing, so that creation is retried.
+     */
+    private static void createFolders(File folder) throws IOException {
+        try {
+            Files.createDirectories(folder.toPath());
+        } catch (FileAlreadyExistsException e) {
+            throw new NoSuchFileException(folder.getPath());
         }
     }
 
-    private void addToCachedFiles(File file) {
+    /**
+     * Publishes complete temporary file under the object file name unless the name is taken.
+     * Hard link creation fails atomically if the name exists, so exactly one of concurrent writers of the key wins.
+     * Rename is used on file systems without hard links.
+     *
+     * @throws FileAlreadyExistsException if object file already exists.
+     */
+    private static void publish(File temporaryFile, File file, String key) throws IOException {
         try {
-            BasicFileAttributes fileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-            FileTime creationTime = fileAttributes.creationTime();
-            cachedFiles.put(creationTime, file);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Files.createLink(file.toPath(), temporaryFile.toPath());
+        } catch (FileAlreadyExistsException e) {
+            throw new FileAlreadyExistsException("File with key " + key + " already exists");
+        } catch (UnsupportedOperationException e) {
+            Files.move(temporaryFile.toPath(), file.toPath());
+            return;
         }
+        Files.delete(temporaryFile.toPath());
+    }
+
+    /**
+     * @return true if temporary file is left by previous run of storage rather than written now.
+     */
+    private boolean isOrphan(File temporaryFile) {
+        return !temporaryFile.getName().contains(temporaryFileMarker);
     }
 
-    private boolean createFile(File file) {
-        boolean isCreated = false;
-        final File fileFolder = file.getParentFile();
-        if (!fileFolder.exists()) isCreated = fileFolder.mkdirs();
+    /**
+     * Makes renames in the folder durable.
+     */
+    private static void syncFolder(File folder) {
         try {
-            if (isCreated) isCreated = file.createNewFile();
+            final FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            /*folders can't be opened for sync on this platform*/
         }
-        return isCreated;
     }
 
     private void deleteEmptyDirectories(File deletedFile) {
         File parent = deletedFile.getParentFile();
-        while (!parent.equals(rootFolder) && parent.list().length == 0) {
-            if (parent.delete()) {
-                parent = parent.getParentFile();
-            } else return;
+        while (!parent.equals(rootFolder)) {
+            final String[] children = parent.list();
+            if (children == null || children.length > 0 || !parent.delete()) return;
+            parent = parent.getParentFile();
         }
     }
 
-    private void processUnfinishedFile(OutputStream outputStream, File file) {
-        if(!file.exists()) return;
+    private void processUnfinishedFile(Closeable output, File file) {
+        if (file == null || !file.exists()) return;
         try {
-            outputStream.close();
-            long fileSize = file.length();
-            usedSpace -= fileSize;
+            if (output != null) output.close();
             if (file.delete()) {
                 deleteEmptyDirectories(file);
             }else file.deleteOnExit();
@@ -309,50 +1592,12 @@ public class FileStorageImpl implements FileStorage {
         }
     }
 
-    private File getFile(String key) {
+    private KeyHash getKeyHash(String key) {
         if (key.isEmpty()) throw new IllegalArgumentException("Key is empty");
-        final String filePathName = buildFilePathName(key);
-        return new File(filePathName);
-    }
-
-    private String buildFilePathName(String key) {
-        final int FOLDER_TREE_HEIGHT = 3;
-        final int CHUNK_SIZE = 3;
-        final String REG_EX = "(?<=\\G.{" + CHUNK_SIZE + "})";
-        final String FILE_EXT = ".dat";
-
-        final StringBuilder absolutePathName =
-                new StringBuilder(rootFolder.toString()).append(File.separator);
-        final String keyHash = DigestUtils.md5Hex(key);
-        /*split hash string by specified amount of chars*/
-        final String[] hashChunks = keyHash.split(REG_EX);
-
-        for (int i = 0; i < FOLDER_TREE_HEIGHT; i++) {
-            absolutePathName.append(hashChunks[i]);
-            absolutePathName.append(File.separator);
-        }
-
-        final String fileName = keyHash.substring(
-                CHUNK_SIZE * FOLDER_TREE_HEIGHT, keyHash.length());
-        absolutePathName.append(fileName).append(FILE_EXT);
-        return absolutePathName.toString();
-    }
-
-    private void addExpiringFile(String key, long expire) {
-        long currentTime = System.currentTimeMillis();
-        final Date expirationTime = new Date(currentTime + expire);
-        expiringFiles.put(key, expirationTime);
-        final boolean isAlreadyFinished = monitoringExecutor.isShutdown() && monitoringExecutor.isTerminated();
-        if(isAlreadyFinished) monitoringExecutor = Executors.newSingleThreadExecutor();
-        runService(monitoringExecutor, new FileExpirationMonitor(this, expiringFiles));
+        return pathEncoder.hash(key);
     }
 
-    private void runService(ExecutorService executor, Runnable task){
-        /*if service has not yet started*/
-        if(!executor.isShutdown()){
-            executor.execute(task);
-            /*manual shutdown after every start to automatically terminate executor's thread*/
-            executor.shutdown();
-        }/*else service is currently running*/
+    private void addExpiringFile(ObjectMetadata metadata) {
+        expirationMonitor.schedule(metadata.keyHash, metadata.expirationTime);
     }
 }
@@ -0,0 +1,82 @@
+package com.teamdev.filestorage;
+
+/**
+ * Count-min sketch with four 4-bit counters per key, estimates how often keys were seen.
+ * Counters are halved when amount of increments reaches ten times the table size,
+ * so the sketch forgets old popularity.
+ *
+ * @author Alex Geta
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MIN_TABLE_SIZE = 1 << 10;
+    private static final int MAX_TABLE_SIZE = 1 << 30;
+
+    private long[] table = new long[0];
+    private int tableMask;
+    private long sampleSize;
+    private long size;
+
+    FrequencySketch(long expectedEntries) {
+        ensureCapacity(expectedEntries);
+    }
+
+    /**
+     * Grows the table to keep estimation error low for the specified amount of keys. Growing resets counters.
+     */
+    void ensureCapacity(long expectedEntries) {
+        final int tableSize = (int) Math.min(MAX_TABLE_SIZE, Math.max(MIN_TABLE_SIZE, Long.highestOneBit(expectedEntries) << 1));
+        if (table.length >= tableSize) return;
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = 10L * tableSize;
+        size = 0;
+    }
+
+    /**
+     * @return estimated amount of increments of the key, at most 15.
+     */
+    int frequency(long keyHash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long hash = spread(keyHash, i);
+            final int shift = counterShift(hash);
+            frequency = Math.min(frequency, (int) ((table[(int) hash & tableMask] >>> shift) & 0xF));
+        }
+        return frequency;
+    }
+
+    void increment(long keyHash) {
+        boolean isIncremented = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long hash = spread(keyHash, i);
+            final int index = (int) hash & tableMask;
+            final int shift = counterShift(hash);
+            if (((table[index] >>> shift) & 0xF) < 15) {
+                table[index] += 1L << shift;
+                isIncremented = true;
+            }
+        }
+        if (isIncremented && ++size >= sampleSize) reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    private static long spread(long keyHash, int row) {
+        long hash = (keyHash + SEEDS[row]) * SEEDS[row];
+        hash += hash >>> 32;
+        return hash;
+    }
+
+    private static int counterShift(long hash) {
+        return (int) ((hash >>> 40) & 0xF) << 2;
+    }
+}
@@ -0,0 +1,68 @@
+package com.teamdev.filestorage;
+
+import java.util.*;
+
+/**
+ * GreedyDual-Size policy with uniform cost: priority of object is L + 1 / size, where L is inflation value
+ * equal to priority of the last evicted object. Object with the lowest priority is evicted first,
+ * so big objects which are not read go out before small and recently read ones.
+ *
+ * @author Alex Geta
+ */
+public class GreedyDualSizeEvictionPolicy implements EvictionPolicy {
+
+    private static final class Entry {
+        final ObjectMetadata object;
+        final double priority;
+
+        Entry(ObjectMetadata object, double priority) {
+            this.object = object;
+            this.priority = priority;
+        }
+    }
+
+    private static final Comparator<Entry> PRIORITY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry first, Entry second) {
+            final int priorityComparison = Double.compare(first.priority, second.priority);
+            return priorityComparison != 0 ? priorityComparison : first.object.keyHash.compareTo(second.object.keyHash);
+        }
+    };
+
+    private final Map<KeyHash, Entry> entries = new HashMap<KeyHash, Entry>();
+    private final TreeSet<Entry> queue = new TreeSet<Entry>(PRIORITY_ORDER);
+    private double inflation;
+
+    @Override
+    public synchronized void onAdd(ObjectMetadata object) {
+        onRemove(object);
+        final Entry entry = new Entry(object, inflation + 1.0 / Math.max(object.size, 1));
+        entries.put(object.keyHash, entry);
+        queue.add(entry);
+    }
+
+    @Override
+    public synchronized void onAccess(ObjectMetadata object) {
+        if (entries.containsKey(object.keyHash)) onAdd(object);
+    }
+
+    @Override
+    public synchronized void onRemove(ObjectMetadata object) {
+        final Entry entry = entries.remove(object.keyHash);
+        if (entry != null) queue.remove(entry);
+    }
+
+    @Override
+    public synchronized List<ObjectMetadata> pollVictims(long bytes) {
+        final List<ObjectMetadata> victims = new ArrayList<ObjectMetadata>();
+        long victimsBytes = 0;
+        while (victimsBytes < bytes && !queue.isEmpty()) {
+            final Entry entry = queue.pollFirst();
+            entries.remove(entry.object.keyHash);
+            inflation = entry.priority;
+            victims.add(entry.object);
+            victimsBytes += entry.object.size;
+        }
+        return victims;
+    }
+}
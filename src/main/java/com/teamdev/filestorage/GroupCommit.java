@@ -0,0 +1,200 @@
+package com.teamdev.filestorage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Amortizes one sync of append-only logs across concurrent writers.
+ * Writer appends its records, then waits for commit of the open batch. Flushing thread waits for batch
+ * to fill or for commit window to pass, closes the batch, syncs logs and releases its writers.
+ * Writers arriving during sync join the next batch, so batches grow with load even with zero window.
+ * Flushing thread is started on demand and stops when nobody waits.
+ *
+ * @author Alex Geta
+ */
+public class GroupCommit implements Runnable {
+
+    /**
+     * Log synced by group commit.
+     */
+    interface Syncable {
+        /**
+         * Forces records appended so far to disk.
+         */
+        void sync() throws IOException;
+    }
+
+    private static final long IDLE_KEEP_ALIVE_MS = 1000;
+
+    /**
+     * Writers waiting for the same sync.
+     */
+    private static final class Batch {
+        int size;
+        boolean isDone;
+        Throwable failure;
+    }
+
+    private final List<Syncable> logs;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ThreadPoolExecutor flushingExecutor;
+    private Batch openBatch = new Batch();
+    private boolean running;
+    private boolean isClosed;
+
+    private final AtomicLong batchesCount = new AtomicLong();
+    private final AtomicLong commitsCount = new AtomicLong();
+    private final AtomicLong syncNanos = new AtomicLong();
+
+    GroupCommit(List<Syncable> logs, long windowMillis, int maxBatchSize) {
+        this.logs = logs;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.flushingExecutor = new ThreadPoolExecutor(1, 1, IDLE_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorageGroupCommit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flushingExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Waits until records appended by the calling thread are synced.
+     *
+     * @throws IOException if sync of the batch failed, group commit is closed or thread is interrupted.
+     */
+    void commit() throws IOException {
+        final Batch batch;
+        synchronized (this) {
+            if (isClosed) throw new IOException("Group commit is closed");
+            batch = openBatch;
+            batch.size++;
+            if (!running) {
+                running = true;
+                flushingExecutor.execute(this);
+            } else if (batch.size >= maxBatchSize) notifyAll();
+            while (!batch.isDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for group commit");
+                }
+            }
+        }
+        if (batch.failure != null) throw new IOException("Group commit failed", batch.failure);
+    }
+
+    /**
+     * Rejects new commits, waits until writers already waiting are synced and flushing thread stops.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            isClosed = true;
+            while (running) wait();
+        }
+        flushingExecutor.shutdown();
+        flushingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Syncs batches until nobody waits. Closed batch is always completed, even if sync fails with unexpected
+     * error, and writers of the open batch never wait for a stopped flushing thread.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                final Batch batch;
+                synchronized (this) {
+                    if (openBatch.size == 0) {
+                        running = false;
+                        notifyAll();
+                        return;
+                    }
+                    final long deadline = System.nanoTime() + windowNanos;
+                    long remainingNanos;
+                    while (openBatch.size < maxBatchSize && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                    batch = openBatch;
+                    openBatch = new Batch();
+                }
+                final long startTime = System.nanoTime();
+                try {
+                    for (Syncable log : logs) {
+                        log.sync();
+                    }
+                } catch (IOException e) {
+                    batch.failure = e;
+                } catch (RuntimeException e) {
+                    batch.failure = e;
+                } catch (Error e) {
+                    batch.failure = e;
+                    throw e;
+                } finally {
+                    syncNanos.addAndGet(System.nanoTime() - startTime);
+                    batchesCount.incrementAndGet();
+                    commitsCount.addAndGet(batch.size);
+                    complete(batch);
+                }
+            }
+        } finally {
+            restartIfStopped();
+        }
+    }
+
+    /**
+     * Called when flushing thread exits, hands writers which joined the open batch
+     * after unexpected error to a new flushing thread.
+     */
+    private synchronized void restartIfStopped() {
+        if (!running) return;
+        if (openBatch.size > 0) flushingExecutor.execute(this);
+        else {
+            running = false;
+            notifyAll();
+        }
+    }
+
+    private synchronized void complete(Batch batch) {
+        batch.isDone = true;
+        notifyAll();
+    }
+
+    /**
+     * @return amount of syncs made.
+     */
+    public long getBatchesCount() {
+        return batchesCount.get();
+    }
+
+    /**
+     * @return amount of saves committed by syncs.
+     */
+    public long getCommitsCount() {
+        return commitsCount.get();
+    }
+
+    /**
+     * @return total time spent in syncs in milliseconds.
+     */
+    public long getSyncTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(syncNanos.get());
+    }
+}
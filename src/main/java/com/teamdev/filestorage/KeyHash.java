@@ -0,0 +1,91 @@
+package com.teamdev.filestorage;
+
+/**
+ * 128 bit hash of the key, identifies object inside storage.
+ *
+ * @author Alex Geta
+ */
+public final class KeyHash implements Comparable<KeyHash> {
+
+    final long high;
+    final long low;
+
+    KeyHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return the most significant 64 bits of the hash.
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the least significant 64 bits of the hash.
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Creates hash from {@link KeyHasher#HASH_LENGTH} bytes in big endian order.
+     */
+    static KeyHash fromBytes(byte[] bytes) {
+        return new KeyHash(getLong(bytes, 0), getLong(bytes, 8));
+    }
+
+    /**
+     * Writes hash to {@link KeyHasher#HASH_LENGTH} bytes in big endian order.
+     */
+    void toBytes(byte[] bytes) {
+        putLong(bytes, 0, high);
+        putLong(bytes, 8, low);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    @Override
+    public int compareTo(KeyHash other) {
+        final int highComparison = compareUnsigned(high, other.high);
+        return highComparison != 0 ? highComparison : compareUnsigned(low, other.low);
+    }
+
+    private static int compareUnsigned(long first, long second) {
+        final long flippedFirst = first + Long.MIN_VALUE;
+        final long flippedSecond = second + Long.MIN_VALUE;
+        return flippedFirst < flippedSecond ? -1 : (flippedFirst == flippedSecond ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KeyHash)) return false;
+        final KeyHash other = (KeyHash) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
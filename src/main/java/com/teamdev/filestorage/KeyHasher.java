@@ -0,0 +1,33 @@
+package com.teamdev.filestorage;
+
+/**
+ * Hash function which spreads keys over storage folder hierarchy.
+ * Implementations must be thread safe and produce 128 bit hash.
+ * Hasher of the storage is recorded in layout descriptor of the root folder,
+ * so it can't be changed for the storage which already holds objects.
+ *
+ * @author Alex Geta
+ */
+public interface KeyHasher {
+
+    /**
+     * Length of produced hash in bytes.
+     */
+    int HASH_LENGTH = 16;
+
+    /**
+     * Returns unique hasher name which is stored in layout descriptor.
+     *
+     * @return hasher name.
+     */
+    String getName();
+
+    /**
+     * Hashes the specified bytes of UTF-8 encoded key.
+     *
+     * @param key    array with encoded key.
+     * @param length amount of key bytes starting from 0 index.
+     * @param hash   array for {@link #HASH_LENGTH} bytes of hash.
+     */
+    void hash(byte[] key, int length, byte[] hash);
+}
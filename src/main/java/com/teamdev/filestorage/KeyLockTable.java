@@ -0,0 +1,125 @@
+package com.teamdev.filestorage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed table of read-write locks coordinating operations on the same key. Key hash chooses the stripe,
+ * so memory doesn't depend on keys count and nothing is allocated per key.
+ * Keys sharing a stripe share the lock, stripes count keeps such collisions rare.
+ * Reads take read lock, saves, deletes, eviction and expiration take write lock.
+ * Lock is taken with tryLock first, so uncontended acquisition costs one CAS and contention is counted
+ * with striped counters which don't become a shared hot spot themselves.
+ *
+ * @author Alex Geta
+ */
+public class KeyLockTable {
+
+    private final ReentrantReadWriteLock[] locks;
+    private final int mask;
+
+    private final LongAdder acquisitionsCount = new LongAdder();
+    private final LongAdder contendedCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder failedTryLocksCount = new LongAdder();
+
+    /**
+     * @param stripesCount amount of locks, power of two.
+     */
+    KeyLockTable(int stripesCount) {
+        if (Integer.bitCount(stripesCount) != 1) throw new IllegalArgumentException("Stripes count must be power of two");
+        this.locks = new ReentrantReadWriteLock[stripesCount];
+        for (int i = 0; i < stripesCount; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = stripesCount - 1;
+    }
+
+    /**
+     * Stripe is chosen by low bits of the hash, which are independent of top bits choosing the folder.
+     */
+    private ReentrantReadWriteLock getLock(KeyHash keyHash) {
+        return locks[(int) (keyHash.low ^ keyHash.low >>> 32) & mask];
+    }
+
+    void lockRead(KeyHash keyHash) {
+        final ReentrantReadWriteLock.ReadLock lock = getLock(keyHash).readLock();
+        acquisitionsCount.increment();
+        if (lock.tryLock()) return;
+        final long startTime = System.nanoTime();
+        lock.lock();
+        recordWait(startTime);
+    }
+
+    void unlockRead(KeyHash keyHash) {
+        getLock(keyHash).readLock().unlock();
+    }
+
+    void lockWrite(KeyHash keyHash) {
+        final ReentrantReadWriteLock.WriteLock lock = getLock(keyHash).writeLock();
+        acquisitionsCount.increment();
+        if (lock.tryLock()) return;
+        final long startTime = System.nanoTime();
+        lock.lock();
+        recordWait(startTime);
+    }
+
+    /**
+     * Takes write lock only if it is free, used by background operations which may skip busy key.
+     *
+     * @return true if lock is taken.
+     */
+    boolean tryLockWrite(KeyHash keyHash) {
+        if (getLock(keyHash).writeLock().tryLock()) {
+            acquisitionsCount.increment();
+            return true;
+        }
+        failedTryLocksCount.increment();
+        return false;
+    }
+
+    void unlockWrite(KeyHash keyHash) {
+        getLock(keyHash).writeLock().unlock();
+    }
+
+    private void recordWait(long startTime) {
+        waitNanos.add(System.nanoTime() - startTime);
+        contendedCount.increment();
+    }
+
+    /**
+     * @return amount of locks taken.
+     */
+    public long getAcquisitionsCount() {
+        return acquisitionsCount.sum();
+    }
+
+    /**
+     * @return amount of locks which were held by others and waited for.
+     */
+    public long getContendedCount() {
+        return contendedCount.sum();
+    }
+
+    /**
+     * @return total time spent waiting for locks in milliseconds.
+     */
+    public long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    /**
+     * @return amount of keys skipped by eviction because they were locked.
+     */
+    public long getFailedTryLocksCount() {
+        return failedTryLocksCount.sum();
+    }
+
+    /**
+     * @return amount of stripes.
+     */
+    public int getStripesCount() {
+        return locks.length;
+    }
+}
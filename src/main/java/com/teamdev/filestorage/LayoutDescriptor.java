@@ -0,0 +1,80 @@
+package com.teamdev.filestorage;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * Descriptor file in the root folder which records storage layout parameters.
+ * Storages created before descriptor introduction have no such file and use MD5 layout.
+ *
+ * @author Alex Geta
+ */
+class LayoutDescriptor {
+
+    static final String FILE_NAME = "layout.properties";
+    private static final String HASHER_PROPERTY = "hasher";
+
+    private LayoutDescriptor() {
+    }
+
+    /**
+     * Returns hasher of the storage in the specified root folder and records it if descriptor is missing.
+     *
+     * @param rootFolder storage root folder.
+     * @param keyHasher  desired hasher or null to use the recorded one.
+     * @return hasher which must be used for the storage.
+     * @throws IllegalArgumentException if desired hasher differs from recorded one
+     *                                  or recorded hasher is unknown.
+     */
+    static KeyHasher resolveHasher(File rootFolder, KeyHasher keyHasher) {
+        final File descriptorFile = new File(rootFolder, FILE_NAME);
+        final Properties properties = new Properties();
+        if (descriptorFile.exists()) {
+            load(descriptorFile, properties);
+        }
+        final String recordedName = properties.getProperty(HASHER_PROPERTY);
+
+        if (recordedName == null) {
+            final KeyHasher chosenHasher = keyHasher != null ? keyHasher : new Md5KeyHasher();
+            properties.setProperty(HASHER_PROPERTY, chosenHasher.getName());
+            store(descriptorFile, properties);
+            return chosenHasher;
+        }
+        if (keyHasher != null) {
+            if (!keyHasher.getName().equals(recordedName)) {
+                throw new IllegalArgumentException("Storage \"" + rootFolder + "\" uses \"" + recordedName +
+                        "\" hasher, not \"" + keyHasher.getName() + "\"");
+            }
+            return keyHasher;
+        }
+        if (Md5KeyHasher.NAME.equals(recordedName)) return new Md5KeyHasher();
+        if (Murmur3KeyHasher.NAME.equals(recordedName)) return new Murmur3KeyHasher();
+        throw new IllegalArgumentException("Unknown hasher \"" + recordedName + "\" of storage \"" + rootFolder + "\"");
+    }
+
+    private static void load(File descriptorFile, Properties properties) {
+        try {
+            final InputStream inputStream = new FileInputStream(descriptorFile);
+            try {
+                properties.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read layout descriptor \"" + descriptorFile + "\"", e);
+        }
+    }
+
+    private static void store(File descriptorFile, Properties properties) {
+        try {
+            final OutputStream outputStream = new FileOutputStream(descriptorFile);
+            try {
+                properties.store(outputStream, "FileStorage layout");
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't write layout descriptor \"" + descriptorFile + "\"", e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.teamdev.filestorage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Evicts the least recently read objects first.
+ *
+ * @author Alex Geta
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    private final LinkedHashMap<KeyHash, ObjectMetadata> entries =
+            new LinkedHashMap<KeyHash, ObjectMetadata>(16, 0.75f, true);
+
+    @Override
+    public synchronized void onAdd(ObjectMetadata object) {
+        entries.put(object.keyHash, object);
+    }
+
+    @Override
+    public synchronized void onAccess(ObjectMetadata object) {
+        entries.get(object.keyHash);
+    }
+
+    @Override
+    public synchronized void onRemove(ObjectMetadata object) {
+        entries.remove(object.keyHash);
+    }
+
+    @Override
+    public synchronized List<ObjectMetadata> pollVictims(long bytes) {
+        final List<ObjectMetadata> victims = new ArrayList<ObjectMetadata>();
+        long victimsBytes = 0;
+        final Iterator<ObjectMetadata> iterator = entries.values().iterator();
+        while (victimsBytes < bytes && iterator.hasNext()) {
+            final ObjectMetadata victim = iterator.next();
+            iterator.remove();
+            victims.add(victim);
+            victimsBytes += victim.size;
+        }
+        return victims;
+    }
+}
@@ -0,0 +1,100 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps read-only memory mappings of large objects, so random reads into them don't need system calls.
+ * Objects are immutable, so mapping is valid while the object is stored. Mappings are keyed by object metadata,
+ * saving object under the same key again creates new metadata and never hits stale mapping.
+ * The least recently used mappings are dropped when their count exceeds the limit,
+ * mapped memory is released by garbage collector.
+ *
+ * @author Alex Geta
+ */
+class MappedObjects {
+
+    /**
+     * Binary logarithm of mapped region size, one mapping can't exceed 2 GB.
+     */
+    static final int REGION_SHIFT = 30;
+    private static final long REGION_SIZE = 1L << REGION_SHIFT;
+
+    private final long thresholdBytes;
+    private final Map<ObjectMetadata, ByteBuffer[]> mappings;
+
+    /**
+     * @param thresholdBytes    min size of mapped object.
+     * @param maxMappingsCount  max amount of mapped objects.
+     */
+    MappedObjects(long thresholdBytes, final int maxMappingsCount) {
+        this.thresholdBytes = thresholdBytes;
+        this.mappings = new LinkedHashMap<ObjectMetadata, ByteBuffer[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectMetadata, ByteBuffer[]> eldest) {
+                return size() > maxMappingsCount;
+            }
+        };
+    }
+
+    /**
+     * @return true if reads of the object are served from mapping.
+     */
+    boolean isMapped(ObjectMetadata metadata) {
+        return metadata != null && !metadata.isPacked() && metadata.size >= thresholdBytes;
+    }
+
+    /**
+     * Returns regions of the mapped object file, maps file on first access.
+     */
+    ByteBuffer[] map(ObjectMetadata metadata, File file) throws IOException {
+        synchronized (mappings) {
+            final ByteBuffer[] regions = mappings.get(metadata);
+            if (regions != null) return regions;
+        }
+        final ByteBuffer[] regions = new ByteBuffer[(int) ((metadata.size + REGION_SIZE - 1) >>> REGION_SHIFT)];
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            for (int i = 0; i < regions.length; i++) {
+                final long position = (long) i << REGION_SHIFT;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE, metadata.size - position));
+            }
+        } finally {
+            channel.close();
+        }
+        synchronized (mappings) {
+            mappings.put(metadata, regions);
+        }
+        return regions;
+    }
+
+    /**
+     * Drops mapping of removed object.
+     */
+    void remove(ObjectMetadata metadata) {
+        synchronized (mappings) {
+            mappings.remove(metadata);
+        }
+    }
+
+    /**
+     * Drops all mappings, mapped memory is released by garbage collector.
+     */
+    void close() {
+        synchronized (mappings) {
+            mappings.clear();
+        }
+    }
+
+    int getMappingsCount() {
+        synchronized (mappings) {
+            return mappings.size();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.teamdev.filestorage;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 based hasher, the default one for compatibility with existing storages.
+ *
+ * @author Alex Geta
+ */
+public class Md5KeyHasher implements KeyHasher {
+
+    public static final String NAME = "md5";
+
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void hash(byte[] key, int length, byte[] hash) {
+        final MessageDigest digest = digests.get();
+        digest.update(key, 0, length);
+        try {
+            digest.digest(hash, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.teamdev.filestorage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of objects metadata plus journal of changes made after it.
+ * Checkpoint is header, fixed size records, records count and CRC32 of all preceding bytes.
+ * Journal records are fixed size and carry own CRC32, so torn tail is detected and discarded.
+ * Last access times are persisted by checkpoints only, journal records changes of objects set.
+ *
+ * @author Alex Geta
+ */
+class MetadataCheckpoint implements GroupCommit.Syncable {
+
+    static final String CHECKPOINT_FILE_NAME = "metadata.ckp";
+    static final String JOURNAL_FILE_NAME = "metadata.journal";
+    static final String OLD_JOURNAL_FILE_NAME = "metadata.journal.old";
+
+    private static final int MAGIC = 0x46534350;
+    private static final int VERSION = 2;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int CHECKPOINT_RECORD_SIZE = 8 * 6 + 4 + 8;
+    private static final int TRAILER_SIZE = 8 + 8;
+    private static final int JOURNAL_RECORD_SIZE = 1 + 8 * 5 + 4 + 8 + 4;
+
+    private final File checkpointFile;
+    private final File journalFile;
+    private final File oldJournalFile;
+    private final ByteBuffer record = ByteBuffer.allocate(JOURNAL_RECORD_SIZE);
+    private final CRC32 recordChecksum = new CRC32();
+    private FileChannel journal;
+
+    MetadataCheckpoint(File rootFolder) {
+        this.checkpointFile = new File(rootFolder, CHECKPOINT_FILE_NAME);
+        this.journalFile = new File(rootFolder, JOURNAL_FILE_NAME);
+        this.oldJournalFile = new File(rootFolder, OLD_JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Loads checkpoint and replays journals written after it.
+     *
+     * @param objects map to put loaded metadata in.
+     * @return false if checkpoint is missing or corrupted, objects map is left untouched in this case.
+     */
+    synchronized boolean load(Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        if (!checkpointFile.exists()) return false;
+        final Map<KeyHash, ObjectMetadata> loaded = new HashMap<KeyHash, ObjectMetadata>();
+        if (!readCheckpoint(loaded)) return false;
+        replayJournal(oldJournalFile, loaded);
+        replayJournal(journalFile, loaded);
+        objects.putAll(loaded);
+        return true;
+    }
+
+    private boolean readCheckpoint(Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        final long recordsLength = checkpointFile.length() - HEADER_SIZE - TRAILER_SIZE;
+        if (recordsLength < 0 || recordsLength % CHECKPOINT_RECORD_SIZE != 0) return false;
+        final long count = recordsLength / CHECKPOINT_RECORD_SIZE;
+
+        final CheckedInputStream checkedStream =
+                new CheckedInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)), new CRC32());
+        final DataInputStream inputStream = new DataInputStream(checkedStream);
+        try {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) return false;
+            for (long i = 0; i < count; i++) {
+                final KeyHash keyHash = new KeyHash(inputStream.readLong(), inputStream.readLong());
+                objects.put(keyHash, new ObjectMetadata(keyHash, inputStream.readLong(), inputStream.readLong(),
+                        inputStream.readLong(), inputStream.readLong(), inputStream.readInt(), inputStream.readLong()));
+            }
+            if (inputStream.readLong() != count) return false;
+            final long expectedChecksum = checkedStream.getChecksum().getValue();
+            return inputStream.readLong() == expectedChecksum;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void replayJournal(File file, Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        if (!file.exists()) return;
+        final DataInputStream inputStream =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        final byte[] bytes = new byte[JOURNAL_RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final CRC32 checksum = new CRC32();
+        try {
+            while (true) {
+                inputStream.readFully(bytes);
+                checksum.reset();
+                checksum.update(bytes, 0, JOURNAL_RECORD_SIZE - 4);
+                buffer.clear();
+                if ((int) checksum.getValue() != buffer.getInt(JOURNAL_RECORD_SIZE - 4)) return;
+                final byte type = buffer.get();
+                final KeyHash keyHash = new KeyHash(buffer.getLong(), buffer.getLong());
+                if (type == PUT) {
+                    final long size = buffer.getLong();
+                    final long creationTime = buffer.getLong();
+                    final long expirationTime = buffer.getLong();
+                    objects.put(keyHash, new ObjectMetadata(keyHash, size, creationTime, expirationTime, creationTime,
+                            buffer.getInt(), buffer.getLong()));
+                } else objects.remove(keyHash);
+            }
+        } catch (EOFException e) {
+            /*end of journal or torn record*/
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Opens journal for appending, records are appended after the last valid one.
+     */
+    synchronized void open() throws IOException {
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.position(validJournalLength());
+        journal.truncate(journal.position());
+    }
+
+    private long validJournalLength() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(JOURNAL_RECORD_SIZE);
+        final CRC32 checksum = new CRC32();
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                if (journal.read(buffer, position + buffer.position()) < 0) return position;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), 0, JOURNAL_RECORD_SIZE - 4);
+            if ((int) checksum.getValue() != buffer.getInt(JOURNAL_RECORD_SIZE - 4)) return position;
+            position += JOURNAL_RECORD_SIZE;
+        }
+    }
+
+    synchronized void put(ObjectMetadata metadata) throws IOException {
+        if (journal == null) return;
+        encode(PUT, metadata.keyHash, metadata.size, metadata.creationTime, metadata.expirationTime,
+                metadata.getSegmentId(), metadata.getOffset());
+        writeJournal(record);
+    }
+
+    synchronized void remove(KeyHash keyHash) throws IOException {
+        if (journal == null) return;
+        encode(REMOVE, keyHash, 0, 0, 0, 0, 0);
+        writeJournal(record);
+    }
+
+    /**
+     * Appends removal records of all the specified keys at once.
+     */
+    synchronized void removeAll(List<KeyHash> keyHashes) throws IOException {
+        if (journal == null) return;
+        final ByteBuffer records = ByteBuffer.allocate(keyHashes.size() * JOURNAL_RECORD_SIZE);
+        for (KeyHash keyHash : keyHashes) {
+            encode(REMOVE, keyHash, 0, 0, 0, 0, 0);
+            records.put(record);
+        }
+        records.flip();
+        writeJournal(records);
+    }
+
+    /**
+     * Encodes journal record into reusable record buffer.
+     */
+    private void encode(byte type, KeyHash keyHash, long size, long creationTime, long expirationTime,
+                        int segmentId, long offset) {
+        record.clear();
+        record.put(type).putLong(keyHash.high).putLong(keyHash.low)
+                .putLong(size).putLong(creationTime).putLong(expirationTime).putInt(segmentId).putLong(offset);
+        recordChecksum.reset();
+        recordChecksum.update(record.array(), 0, record.position());
+        record.putInt((int) recordChecksum.getValue());
+        record.flip();
+    }
+
+    private void writeJournal(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+    }
+
+    /**
+     * Forces journal records appended so far to disk. Appends are not blocked while journal is forced.
+     */
+    @Override
+    public void sync() throws IOException {
+        final FileChannel channel;
+        synchronized (this) {
+            channel = journal;
+        }
+        if (channel == null) return;
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            /*rotated journal is forced by rotation*/
+            synchronized (this) {
+                if (journal == channel) throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes checkpoint of the specified objects and drops journal records it covers.
+     * Objects may be changed concurrently: journal is rotated before objects are read,
+     * so changes missed by checkpoint are kept in the new journal. Must not be called concurrently.
+     */
+    void write(Iterable<ObjectMetadata> objects) throws IOException {
+        rotateJournal();
+
+        final File temporaryFile = new File(checkpointFile.getPath() + ".tmp");
+        final FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+        final CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileStream), new CRC32());
+        final DataOutputStream outputStream = new DataOutputStream(checkedStream);
+        try {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            long count = 0;
+            for (ObjectMetadata metadata : objects) {
+                outputStream.writeLong(metadata.keyHash.high);
+                outputStream.writeLong(metadata.keyHash.low);
+                outputStream.writeLong(metadata.size);
+                outputStream.writeLong(metadata.creationTime);
+                outputStream.writeLong(metadata.expirationTime);
+                outputStream.writeLong(metadata.lastAccessTime);
+                final long location = metadata.getLocation();
+                outputStream.writeInt(ObjectMetadata.segmentIdOf(location));
+                outputStream.writeLong(ObjectMetadata.offsetOf(location));
+                count++;
+            }
+            outputStream.writeLong(count);
+            outputStream.writeLong(checkedStream.getChecksum().getValue());
+            outputStream.flush();
+            fileStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        Files.move(temporaryFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        if (!oldJournalFile.delete()) oldJournalFile.deleteOnExit();
+    }
+
+    /**
+     * Moves current journal records to old journal, which is kept until checkpoint is written.
+     * Old journal left by failed checkpoint is appended rather than replaced.
+     */
+    private synchronized void rotateJournal() throws IOException {
+        if (journal != null) {
+            journal.force(false);
+            journal.close();
+        }
+        if (!journalFile.exists()) {
+            /*nothing to rotate*/
+        } else if (!oldJournalFile.exists()) {
+            Files.move(journalFile.toPath(), oldJournalFile.toPath());
+        } else {
+            final FileChannel source = FileChannel.open(journalFile.toPath(), StandardOpenOption.READ);
+            final FileChannel target = FileChannel.open(oldJournalFile.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            try {
+                long position = 0;
+                while (position < source.size()) {
+                    position += source.transferTo(position, source.size() - position, target);
+                }
+                target.force(false);
+            } finally {
+                source.close();
+                target.close();
+            }
+            Files.delete(journalFile.toPath());
+        }
+        journal = null;
+        open();
+    }
+
+    synchronized void close() throws IOException {
+        if (journal != null) journal.close();
+        journal = null;
+    }
+}
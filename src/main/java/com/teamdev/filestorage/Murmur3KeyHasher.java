@@ -0,0 +1,111 @@
+package com.teamdev.filestorage;
+
+/**
+ * Pure java MurmurHash3 x64 128 bit hasher with zero seed.
+ * It is not cryptographic but spreads keys as good as MD5 at a fraction of its cost.
+ * Hash bytes are little endian h1 followed by little endian h2.
+ *
+ * @author Alex Geta
+ */
+public class Murmur3KeyHasher implements KeyHasher {
+
+    public static final String NAME = "murmur3_128";
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void hash(byte[] key, int length, byte[] hash) {
+        long h1 = 0;
+        long h2 = 0;
+        final int blocksEnd = length & ~15;
+        for (int i = 0; i < blocksEnd; i += 16) {
+            long k1 = getLong(key, i);
+            long k2 = getLong(key, i + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15: k2 ^= (long) (key[blocksEnd + 14] & 0xFF) << 48;
+            case 14: k2 ^= (long) (key[blocksEnd + 13] & 0xFF) << 40;
+            case 13: k2 ^= (long) (key[blocksEnd + 12] & 0xFF) << 32;
+            case 12: k2 ^= (long) (key[blocksEnd + 11] & 0xFF) << 24;
+            case 11: k2 ^= (long) (key[blocksEnd + 10] & 0xFF) << 16;
+            case 10: k2 ^= (long) (key[blocksEnd + 9] & 0xFF) << 8;
+            case 9:  k2 ^= (long) (key[blocksEnd + 8] & 0xFF);
+                h2 ^= mixK2(k2);
+            case 8:  k1 ^= (long) (key[blocksEnd + 7] & 0xFF) << 56;
+            case 7:  k1 ^= (long) (key[blocksEnd + 6] & 0xFF) << 48;
+            case 6:  k1 ^= (long) (key[blocksEnd + 5] & 0xFF) << 40;
+            case 5:  k1 ^= (long) (key[blocksEnd + 4] & 0xFF) << 32;
+            case 4:  k1 ^= (long) (key[blocksEnd + 3] & 0xFF) << 24;
+            case 3:  k1 ^= (long) (key[blocksEnd + 2] & 0xFF) << 16;
+            case 2:  k1 ^= (long) (key[blocksEnd + 1] & 0xFF) << 8;
+            case 1:  k1 ^= (long) (key[blocksEnd] & 0xFF);
+                h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        putLong(hash, 0, h1);
+        putLong(hash, 8, h2);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (i * 8));
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.teamdev.filestorage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Off-heap cache of small object bytes in front of the disk. Memory is allocated on demand as direct slabs
+ * split into fixed chunks, every cached object occupies a list of chunks, so cache never fragments
+ * and its memory never exceeds capacity. Entries are evicted in LRU order.
+ * When cache is full, new object is admitted only if it is read more often than the LRU victim
+ * according to count-min frequency sketch, so one-off reads don't flush hot objects.
+ * Entry is served only for the same object metadata it was cached for, so replaced object is never returned.
+ *
+ * @author Alex Geta
+ */
+public class ObjectCache {
+
+    private static final int CHUNK_SHIFT = 9;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int SLAB_SIZE = 1024 * 1024;
+
+    private static final class Entry {
+        final ObjectMetadata metadata;
+        final int[] chunks;
+
+        Entry(ObjectMetadata metadata, int[] chunks) {
+            this.metadata = metadata;
+            this.chunks = chunks;
+        }
+    }
+
+    private final long capacityBytes;
+    private final int maxObjectSize;
+    private final int chunksPerSlab;
+    private final ByteBuffer[] slabs;
+    private int slabsCount;
+    /**
+     * Stack of free chunk ids, chunk id is slab index multiplied by chunks per slab plus chunk index in the slab.
+     */
+    private final int[] freeChunks;
+    private int freeChunksCount;
+    private final LinkedHashMap<KeyHash, Entry> entries = new LinkedHashMap<KeyHash, Entry>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private boolean isClosed;
+
+    /**
+     * @param capacityBytes  max amount of memory holding cached bytes.
+     * @param maxObjectSize  max size of cached object.
+     */
+    ObjectCache(long capacityBytes, int maxObjectSize) {
+        final int slabSize = (int) Math.max(CHUNK_SIZE, Math.min(SLAB_SIZE, capacityBytes) >>> CHUNK_SHIFT << CHUNK_SHIFT);
+        this.chunksPerSlab = slabSize >>> CHUNK_SHIFT;
+        this.slabs = new ByteBuffer[(int) Math.max(1, capacityBytes / slabSize)];
+        this.capacityBytes = (long) slabs.length * slabSize;
+        this.maxObjectSize = (int) Math.min(maxObjectSize, this.capacityBytes);
+        this.freeChunks = new int[slabs.length * chunksPerSlab];
+        this.sketch = new FrequencySketch(Math.max(1, this.capacityBytes / CHUNK_SIZE));
+    }
+
+    /**
+     * @return true if object is small enough to be cached.
+     */
+    boolean isCacheable(ObjectMetadata metadata) {
+        return metadata.size <= maxObjectSize;
+    }
+
+    /**
+     * Returns cached bytes of the object and counts the read for admission.
+     *
+     * @return copy of object bytes, or null if the object isn't cached.
+     */
+    synchronized byte[] get(ObjectMetadata metadata) {
+        sketch.increment(metadata.keyHash.low);
+        final Entry entry = entries.get(metadata.keyHash);
+        if (entry == null || entry.metadata != metadata) {
+            misses++;
+            return null;
+        }
+        hits++;
+        final byte[] bytes = new byte[(int) metadata.size];
+        for (int i = 0; i < entry.chunks.length; i++) {
+            final ByteBuffer chunk = getChunk(entry.chunks[i]);
+            chunk.get(bytes, i << CHUNK_SHIFT, Math.min(CHUNK_SIZE, bytes.length - (i << CHUNK_SHIFT)));
+        }
+        return bytes;
+    }
+
+    /**
+     * Caches object bytes read from disk unless they lose admission to the LRU victim.
+     *
+     * @return true if bytes are cached.
+     */
+    synchronized boolean put(ObjectMetadata metadata, byte[] bytes) {
+        if (isClosed || !isCacheable(metadata)) return false;
+        final Entry existing = entries.get(metadata.keyHash);
+        if (existing != null) {
+            if (existing.metadata == metadata) return true;
+            remove(metadata.keyHash);
+        }
+        final int chunksCount = (bytes.length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+        if (!reserveChunks(chunksCount, sketch.frequency(metadata.keyHash.low))) {
+            rejections++;
+            return false;
+        }
+        final int[] chunks = new int[chunksCount];
+        for (int i = 0; i < chunksCount; i++) {
+            chunks[i] = freeChunks[--freeChunksCount];
+            final ByteBuffer chunk = getChunk(chunks[i]);
+            chunk.put(bytes, i << CHUNK_SHIFT, Math.min(CHUNK_SIZE, bytes.length - (i << CHUNK_SHIFT)));
+        }
+        entries.put(metadata.keyHash, new Entry(metadata, chunks));
+        cachedBytes += bytes.length;
+        return true;
+    }
+
+    /**
+     * Drops cached bytes of the key. Called when object is saved, deleted or evicted from the storage.
+     */
+    synchronized void invalidate(KeyHash keyHash) {
+        remove(keyHash);
+    }
+
+    /**
+     * Drops all cached bytes and slabs, so off-heap memory is released by garbage collector. Nothing is cached after.
+     */
+    synchronized void close() {
+        isClosed = true;
+        entries.clear();
+        for (int i = 0; i < slabsCount; i++) slabs[i] = null;
+        slabsCount = 0;
+        freeChunksCount = 0;
+        cachedBytes = 0;
+    }
+
+    /**
+     * Makes the specified amount of chunks free, allocating slabs first and evicting LRU entries then.
+     * Victims are chosen before any of them is evicted, so rejected candidate never evicts anything.
+     *
+     * @return false if the candidate is read less often than a victim.
+     */
+    private boolean reserveChunks(int chunksCount, int candidateFrequency) {
+        while (freeChunksCount < chunksCount && slabsCount < slabs.length) {
+            slabs[slabsCount] = ByteBuffer.allocateDirect(chunksPerSlab << CHUNK_SHIFT);
+            for (int i = chunksPerSlab - 1; i >= 0; i--) {
+                freeChunks[freeChunksCount++] = slabsCount * chunksPerSlab + i;
+            }
+            slabsCount++;
+        }
+        int victimsCount = 0;
+        int reservedChunksCount = freeChunksCount;
+        for (Iterator<Entry> iterator = entries.values().iterator(); reservedChunksCount < chunksCount; victimsCount++) {
+            if (!iterator.hasNext()) return false;
+            final Entry victim = iterator.next();
+            if (sketch.frequency(victim.metadata.keyHash.low) >= candidateFrequency) return false;
+            reservedChunksCount += victim.chunks.length;
+        }
+        final Iterator<Entry> iterator = entries.values().iterator();
+        for (int i = 0; i < victimsCount; i++) {
+            final Entry victim = iterator.next();
+            iterator.remove();
+            release(victim);
+            evictions++;
+        }
+        return true;
+    }
+
+    private void remove(KeyHash keyHash) {
+        final Entry entry = entries.remove(keyHash);
+        if (entry != null) release(entry);
+    }
+
+    private void release(Entry entry) {
+        for (int chunk : entry.chunks) freeChunks[freeChunksCount++] = chunk;
+        cachedBytes -= entry.metadata.size;
+    }
+
+    private ByteBuffer getChunk(int chunkId) {
+        final ByteBuffer chunk = slabs[chunkId / chunksPerSlab].duplicate();
+        chunk.position((chunkId % chunksPerSlab) << CHUNK_SHIFT);
+        return chunk;
+    }
+
+    /**
+     * @return max amount of memory holding cached bytes.
+     */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @return amount of cached object bytes.
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @return amount of off-heap memory allocated for slabs.
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) slabsCount * chunksPerSlab << CHUNK_SHIFT;
+    }
+
+    public synchronized long getCachedObjectsCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitsCount() {
+        return hits;
+    }
+
+    public synchronized long getMissesCount() {
+        return misses;
+    }
+
+    /**
+     * @return share of reads served from cache, 0 if nothing was read.
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return amount of entries evicted to admit new objects.
+     */
+    public synchronized long getEvictionsCount() {
+        return evictions;
+    }
+
+    /**
+     * @return amount of objects not admitted because they are read less often than LRU victim.
+     */
+    public synchronized long getRejectionsCount() {
+        return rejections;
+    }
+}
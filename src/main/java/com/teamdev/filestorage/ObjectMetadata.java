@@ -0,0 +1,110 @@
+package com.teamdev.filestorage;
+
+/**
+ * In-memory description of the stored object.
+ *
+ * @author Alex Geta
+ */
+public final class ObjectMetadata {
+
+    final KeyHash keyHash;
+    final long size;
+    final long creationTime;
+    /**
+     * Expiration time in milliseconds since epoch, 0 if object never expires.
+     */
+    final long expirationTime;
+    volatile long lastAccessTime;
+    /**
+     * Location of packed object: segment id in high bits, position of object bytes in the segment in low bits.
+     * 0 if object is stored in its own file. Single field, so relocation by compaction is seen atomically.
+     */
+    private volatile long location;
+
+    ObjectMetadata(KeyHash keyHash, long size, long creationTime, long expirationTime, long lastAccessTime) {
+        this(keyHash, size, creationTime, expirationTime, lastAccessTime, 0, 0);
+    }
+
+    ObjectMetadata(KeyHash keyHash, long size, long creationTime, long expirationTime, long lastAccessTime,
+                   int segmentId, long offset) {
+        this.keyHash = keyHash;
+        this.size = size;
+        this.creationTime = creationTime;
+        this.expirationTime = expirationTime;
+        this.lastAccessTime = lastAccessTime;
+        this.location = toLocation(segmentId, offset);
+    }
+
+    static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    static long toLocation(int segmentId, long offset) {
+        return (long) segmentId << OFFSET_BITS | offset;
+    }
+
+    static int segmentIdOf(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    static long offsetOf(long location) {
+        return location & OFFSET_MASK;
+    }
+
+    long getLocation() {
+        return location;
+    }
+
+    int getSegmentId() {
+        return segmentIdOf(location);
+    }
+
+    long getOffset() {
+        return offsetOf(location);
+    }
+
+    /**
+     * Moves packed object to another place, called by compaction.
+     */
+    void relocate(int segmentId, long offset) {
+        location = toLocation(segmentId, offset);
+    }
+
+    public KeyHash getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * @return object size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return creation time in milliseconds since epoch.
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * @return expiration time in milliseconds since epoch, 0 if object never expires.
+     */
+    public long getExpirationTime() {
+        return expirationTime;
+    }
+
+    /**
+     * @return last read time in milliseconds since epoch.
+     */
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * @return true if object is packed into segment file rather than stored in its own file.
+     */
+    public boolean isPacked() {
+        return location != 0;
+    }
+}
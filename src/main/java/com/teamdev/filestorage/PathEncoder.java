@@ -0,0 +1,158 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * Maps keys to object files without regex splitting and intermediate strings.
+ * Key is hashed into reusable byte array, hash is hex encoded straight into reusable char buffer
+ * prefixed by root folder path, so the only allocations per lookup are resulting String and File.
+ * Layout is root/abc/def/ghi/[remaining 23 hex chars].dat where abcdefghi... is hex of the key hash.
+ *
+ * @author Alex Geta
+ */
+class PathEncoder {
+
+    static final int HASH_LENGTH = KeyHasher.HASH_LENGTH;
+    static final int FOLDER_TREE_HEIGHT = 3;
+    static final int CHUNK_SIZE = 3;
+    static final String FILE_EXT = ".dat";
+    /**
+     * Extension of temporary file object is written to before it is published under its own name.
+     */
+    static final String TEMP_EXT = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    static final int HEX_LENGTH = HASH_LENGTH * 2;
+    private static final int RELATIVE_PATH_LENGTH = HEX_LENGTH + FOLDER_TREE_HEIGHT + FILE_EXT.length();
+
+    private final char[] rootPrefix;
+    private final KeyHasher keyHasher;
+
+    private final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * Per thread reusable buffers.
+     */
+    private final class State {
+        final byte[] hash = new byte[HASH_LENGTH];
+        final char[] path = new char[rootPrefix.length + RELATIVE_PATH_LENGTH];
+        byte[] keyBytes = new byte[64];
+
+        State() {
+            System.arraycopy(rootPrefix, 0, path, 0, rootPrefix.length);
+        }
+    }
+
+    PathEncoder(File rootFolder, KeyHasher keyHasher) {
+        this.rootPrefix = (rootFolder.toString() + File.separator).toCharArray();
+        this.keyHasher = keyHasher;
+    }
+
+    /**
+     * Returns object file associated with the specified key.
+     */
+    File getFile(String key) {
+        final State state = states.get();
+        hash(key, state);
+        return new File(buildPathName(state.hash, state.path));
+    }
+
+    /**
+     * Returns 128 bit hash of the key.
+     */
+    KeyHash hash(String key) {
+        final State state = states.get();
+        hash(key, state);
+        return KeyHash.fromBytes(state.hash);
+    }
+
+    /**
+     * Returns object file associated with the specified key hash.
+     */
+    File getFile(KeyHash keyHash) {
+        final State state = states.get();
+        keyHash.toBytes(state.hash);
+        return new File(buildPathName(state.hash, state.path));
+    }
+
+    /**
+     * Returns index of top level folder holding the object, the number encoded by the folder name.
+     */
+    static int getTopFolderIndex(KeyHash keyHash) {
+        return (int) (keyHash.high >>> (Long.SIZE - CHUNK_SIZE * 4));
+    }
+
+    /**
+     * Parses key hash from the object file path.
+     *
+     * @return key hash or null if file is not an object file.
+     */
+    static KeyHash parseHash(File file) {
+        final char[] hex = new char[HEX_LENGTH];
+        final String fileName = file.getName();
+        final int fileHexLength = HEX_LENGTH - FOLDER_TREE_HEIGHT * CHUNK_SIZE;
+        if (fileName.length() != fileHexLength + FILE_EXT.length() || !fileName.endsWith(FILE_EXT)) return null;
+        fileName.getChars(0, fileHexLength, hex, HEX_LENGTH - fileHexLength);
+        File folder = file.getParentFile();
+        for (int level = FOLDER_TREE_HEIGHT - 1; level >= 0; level--) {
+            if (folder == null || folder.getName().length() != CHUNK_SIZE) return null;
+            folder.getName().getChars(0, CHUNK_SIZE, hex, level * CHUNK_SIZE);
+            folder = folder.getParentFile();
+        }
+        final byte[] hash = new byte[HASH_LENGTH];
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            final int digit = Character.digit(hex[i], 16);
+            if (digit < 0) return null;
+            hash[i >> 1] |= (i & 1) == 0 ? digit << 4 : digit;
+        }
+        return KeyHash.fromBytes(hash);
+    }
+
+    private void hash(String key, State state) {
+        final int length = encodeKey(key, state);
+        keyHasher.hash(state.keyBytes, length, state.hash);
+    }
+
+    /**
+     * Writes UTF-8 representation of the key to reusable array, ASCII keys are encoded without allocations.
+     *
+     * @return amount of written bytes.
+     */
+    private static int encodeKey(String key, State state) {
+        final int keyLength = key.length();
+        if (state.keyBytes.length < keyLength) state.keyBytes = new byte[Math.max(keyLength, state.keyBytes.length * 2)];
+        for (int i = 0; i < keyLength; i++) {
+            final char c = key.charAt(i);
+            if (c >= 0x80) {
+                final byte[] encoded = key.getBytes(UTF_8);
+                if (state.keyBytes.length < encoded.length) state.keyBytes = new byte[encoded.length];
+                System.arraycopy(encoded, 0, state.keyBytes, 0, encoded.length);
+                return encoded.length;
+            }
+            state.keyBytes[i] = (byte) c;
+        }
+        return keyLength;
+    }
+
+    private String buildPathName(byte[] hash, char[] path) {
+        int position = rootPrefix.length;
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            final int b = hash[i >> 1];
+            path[position++] = HEX_DIGITS[(i & 1) == 0 ? (b >> 4) & 0xF : b & 0xF];
+            if (i < FOLDER_TREE_HEIGHT * CHUNK_SIZE && (i + 1) % CHUNK_SIZE == 0) {
+                path[position++] = File.separatorChar;
+            }
+        }
+        for (int i = 0; i < FILE_EXT.length(); i++) {
+            path[position++] = FILE_EXT.charAt(i);
+        }
+        return new String(path, 0, position);
+    }
+}
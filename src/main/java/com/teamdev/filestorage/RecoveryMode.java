@@ -0,0 +1,18 @@
+package com.teamdev.filestorage;
+
+/**
+ * Way of accounting objects which are already stored in the root folder when storage is created.
+ *
+ * @author Alex Geta
+ */
+public enum RecoveryMode {
+    /**
+     * Storage constructor returns after all stored objects are accounted.
+     */
+    BLOCKING,
+    /**
+     * Stored objects are accounted in background. Objects can be read meanwhile,
+     * saving, deleting and cleaning wait for recovery to finish.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,63 @@
+package com.teamdev.filestorage;
+
+/**
+ * Result of accounting objects which were already stored in the root folder on startup.
+ *
+ * @author Alex Geta
+ */
+public class RecoveryReport {
+
+    private final long filesCount;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final boolean isFromCheckpoint;
+
+    RecoveryReport(long filesCount, long bytes, long elapsedNanos, boolean isFromCheckpoint) {
+        this.filesCount = filesCount;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.isFromCheckpoint = isFromCheckpoint;
+    }
+
+    /**
+     * @return true if objects were loaded from metadata checkpoint, false if folder tree was scanned.
+     */
+    public boolean isFromCheckpoint() {
+        return isFromCheckpoint;
+    }
+
+    /**
+     * @return amount of found objects.
+     */
+    public long getFilesCount() {
+        return filesCount;
+    }
+
+    /**
+     * @return total size of found objects in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return recovery duration in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1000000;
+    }
+
+    /**
+     * @return amount of objects recovered per second.
+     */
+    public double getFilesPerSecond() {
+        return elapsedNanos == 0 ? 0 : filesCount * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "Recovered " + filesCount + " files (" + bytes + " bytes) from "
+                + (isFromCheckpoint ? "checkpoint" : "folder scan") + " in " + getElapsedMillis()
+                + " ms, " + Math.round(getFilesPerSecond()) + " files/sec";
+    }
+}
@@ -0,0 +1,145 @@
+package com.teamdev.filestorage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background service compacting segments of packed objects. Closed segment whose share of live bytes
+ * drops below threshold is read sequentially, its live records are copied to the active segment
+ * and the segment file is deleted. The emptiest segment is compacted first, as it frees most space per copied byte.
+ * Compaction spends on I/O only configured share of time and sleeps the rest, so it doesn't starve foreground I/O.
+ * Compacting thread is started on demand after objects are deleted and stops when no segment needs compaction.
+ *
+ * @author Alex Geta
+ */
+public class SegmentCompactor implements Runnable, SegmentStore.Throttle {
+
+    private static final long IDLE_KEEP_ALIVE_MS = 1000;
+
+    private final SegmentStore segmentStore;
+    private final Map<KeyHash, ObjectMetadata> objects;
+    private final SegmentStore.Listener listener;
+    private final double livenessThreshold;
+    private final double ioShare;
+    private final ThreadPoolExecutor compactingExecutor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean rerun = new AtomicBoolean();
+
+    private final AtomicLong compactedSegments = new AtomicLong();
+    private final AtomicLong readBytes = new AtomicLong();
+    private final AtomicLong relocatedBytes = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    SegmentCompactor(SegmentStore segmentStore, Map<KeyHash, ObjectMetadata> objects,
+                     SegmentStore.Listener listener, FileStorageConfig config) {
+        this.segmentStore = segmentStore;
+        this.objects = objects;
+        this.listener = listener;
+        this.livenessThreshold = config.getCompactionLivenessThreshold();
+        this.ioShare = config.getCompactionIoShare();
+        this.compactingExecutor = new ThreadPoolExecutor(1, 1, IDLE_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorageCompactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.compactingExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts compaction if some segment may need it. Called after packed objects are deleted.
+     */
+    void onSegmentsChanged() {
+        if (livenessThreshold <= 0 || compactingExecutor.isShutdown()) return;
+        rerun.set(true);
+        if (running.compareAndSet(false, true)) {
+            compactingExecutor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (rerun.getAndSet(false)) {
+                int segmentId;
+                while ((segmentId = segmentStore.findCompactionCandidate(livenessThreshold)) != 0) {
+                    final long segmentBytes = segmentStore.getSegmentBytes(segmentId);
+                    final long copiedBytes = segmentStore.compact(segmentId, objects, listener, this);
+                    compactedSegments.incrementAndGet();
+                    readBytes.addAndGet(segmentBytes);
+                    relocatedBytes.addAndGet(copiedBytes);
+                    reclaimedBytes.addAndGet(segmentBytes - copiedBytes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            running.set(false);
+        }
+        if (rerun.get()) onSegmentsChanged();
+    }
+
+    /**
+     * Interrupts compaction in progress and waits for compacting thread to stop.
+     * Segment left partially compacted keeps its records and is compacted again after restart.
+     */
+    void close() throws InterruptedException {
+        compactingExecutor.shutdownNow();
+        compactingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sleeps so that compaction I/O takes only configured share of time.
+     */
+    @Override
+    public void onCompacted(long readBytes, long elapsedNanos) throws InterruptedException {
+        if (ioShare >= 1) return;
+        TimeUnit.NANOSECONDS.sleep((long) (elapsedNanos * (1 - ioShare) / ioShare));
+    }
+
+    /**
+     * @return amount of compacted and deleted segments.
+     */
+    public long getCompactedSegmentsCount() {
+        return compactedSegments.get();
+    }
+
+    /**
+     * @return bytes of compacted segments read by compaction.
+     */
+    public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    /**
+     * @return bytes of live records copied to the active segment.
+     */
+    public long getRelocatedBytes() {
+        return relocatedBytes.get();
+    }
+
+    /**
+     * @return bytes of dead records freed on disk.
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return true while compacting thread is running.
+     */
+    public boolean isCompacting() {
+        return running.get();
+    }
+}
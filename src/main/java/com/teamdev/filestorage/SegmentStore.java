@@ -0,0 +1,534 @@
+package com.teamdev.filestorage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only segment files packing small objects, in the manner of Haystack.
+ * Every object is a record of header, object bytes and CRC32. Deletion is recorded by tombstone record
+ * referring to the exact location of deleted record, so segments are self-describing
+ * and objects index can be rebuilt by sequential scan.
+ * Objects are located by segment id and offset kept in {@link ObjectMetadata}, read is one positional read.
+ * New records are appended to the last segment, which is rolled over when it exceeds maximal size.
+ * Live and total bytes are accounted per segment. Compaction copies live records of a sealed segment
+ * to the active one and deletes the segment, so records keep log order needed by scan.
+ *
+ * @author Alex Geta
+ */
+class SegmentStore implements GroupCommit.Syncable {
+
+    /**
+     * Receives location changes made by compaction.
+     */
+    interface Listener {
+        void onRelocated(ObjectMetadata metadata);
+
+        /**
+         * Called before compacted segment is deleted, after copies of its records are synced.
+         */
+        void onCopiesSynced() throws IOException;
+    }
+
+    /**
+     * Paces compaction I/O.
+     */
+    interface Throttle {
+        void onCompacted(long readBytes, long elapsedNanos) throws InterruptedException;
+    }
+
+    static final String FOLDER_NAME = "segments";
+    private static final String FILE_EXT = ".seg";
+
+    private static final int MAGIC = 0x5345474D;
+    private static final byte PUT = 1;
+    private static final byte TOMBSTONE = 2;
+    /**
+     * Magic, type, key hash, creation time, expiration time and object length.
+     * Tombstone keeps location of deleted record instead of the times.
+     */
+    static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 8 + 8 + 4;
+    static final int TRAILER_SIZE = 4;
+    static final long MAX_SEGMENT_SIZE = 1L << ObjectMetadata.OFFSET_BITS;
+    private static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Space accounting of one segment, guarded by the store.
+     */
+    private static final class Segment {
+        final FileChannel channel;
+        long totalBytes;
+        long liveBytes;
+
+        Segment(FileChannel channel, long totalBytes) {
+            this.channel = channel;
+            this.totalBytes = totalBytes;
+        }
+    }
+
+    private final File folder;
+    private final long maxSegmentBytes;
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+    /**
+     * Segments appended after the last sync.
+     */
+    private final Set<Segment> unsyncedSegments = new HashSet<Segment>();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+    private final CRC32 checksum = new CRC32();
+    private int activeSegmentId;
+    private Segment activeSegment;
+    private long appendedBytes;
+
+    SegmentStore(File rootFolder, long maxSegmentBytes) {
+        this.folder = new File(rootFolder, FOLDER_NAME);
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Opens existing segments. Torn records at the end of the last segment are truncated.
+     *
+     * @param objects        objects index, packed objects are put into it if it is not loaded yet.
+     * @param isIndexLoaded  true if locations of packed objects are already loaded from metadata checkpoint,
+     *                       only the tail of the last segment is validated in this case.
+     */
+    synchronized void recover(Map<KeyHash, ObjectMetadata> objects, boolean isIndexLoaded) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) throw new IOException("Can't create " + folder);
+        final List<Integer> segmentIds = listSegmentIds();
+        for (int i = 0; i < segmentIds.size(); i++) {
+            final int segmentId = segmentIds.get(i);
+            final Segment segment = openSegment(segmentId);
+            final boolean isLast = i == segmentIds.size() - 1;
+            if (!isIndexLoaded || isLast) {
+                final long validLength = scan(segmentId, segment.channel, isIndexLoaded ? null : objects);
+                if (isLast && validLength < segment.totalBytes) {
+                    segment.channel.truncate(validLength);
+                    segment.totalBytes = validLength;
+                }
+            }
+        }
+        for (ObjectMetadata metadata : objects.values()) {
+            if (!metadata.isPacked()) continue;
+            final Segment segment = segments.get(metadata.getSegmentId());
+            if (segment != null) segment.liveBytes += recordSize(metadata.size);
+        }
+        if (segmentIds.isEmpty()) rollOver();
+        else {
+            activeSegmentId = segmentIds.get(segmentIds.size() - 1);
+            activeSegment = segments.get(activeSegmentId);
+        }
+    }
+
+    private List<Integer> listSegmentIds() {
+        final List<Integer> segmentIds = new ArrayList<Integer>();
+        final String[] names = folder.list();
+        if (names == null) return segmentIds;
+        for (String name : names) {
+            if (!name.endsWith(FILE_EXT)) continue;
+            try {
+                segmentIds.add(Integer.parseInt(name.substring(0, name.length() - FILE_EXT.length())));
+            } catch (NumberFormatException e) {
+                /*not a segment*/
+            }
+        }
+        Collections.sort(segmentIds);
+        return segmentIds;
+    }
+
+    /**
+     * Record read by sequential scan.
+     */
+    private static final class Record {
+        byte type;
+        KeyHash keyHash;
+        long creationTime;
+        long expirationTime;
+        int length;
+        byte[] data = new byte[4096];
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of segment or at torn or corrupted record.
+     */
+    private static boolean readRecord(DataInputStream inputStream, Record record, CRC32 recordChecksum,
+                                      long remainingBytes) throws IOException {
+        if (remainingBytes < HEADER_SIZE + TRAILER_SIZE) return false;
+        final byte[] recordHeader = new byte[HEADER_SIZE];
+        try {
+            inputStream.readFully(recordHeader);
+            final ByteBuffer buffer = ByteBuffer.wrap(recordHeader);
+            if (buffer.getInt() != MAGIC) return false;
+            record.type = buffer.get();
+            record.keyHash = new KeyHash(buffer.getLong(), buffer.getLong());
+            record.creationTime = buffer.getLong();
+            record.expirationTime = buffer.getLong();
+            record.length = buffer.getInt();
+            if (record.length < 0 || recordSize(record.length) > remainingBytes) return false;
+            if (record.data.length < record.length) record.data = new byte[record.length];
+            inputStream.readFully(record.data, 0, record.length);
+            recordChecksum.reset();
+            recordChecksum.update(recordHeader, 0, HEADER_SIZE);
+            recordChecksum.update(record.data, 0, record.length);
+            return (int) recordChecksum.getValue() == inputStream.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static DataInputStream openSequential(FileChannel channel) throws IOException {
+        channel.position(0);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), COMPACTION_BUFFER_SIZE));
+    }
+
+    /**
+     * Reads records of the segment in order.
+     *
+     * @param objects map to apply records to, may be null.
+     * @return length of the valid records prefix.
+     */
+    private long scan(int segmentId, FileChannel channel, Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        final DataInputStream inputStream = openSequential(channel);
+        final Record record = new Record();
+        final CRC32 recordChecksum = new CRC32();
+        final long size = channel.size();
+        long position = 0;
+        while (readRecord(inputStream, record, recordChecksum, size - position)) {
+            if (objects != null) {
+                if (record.type == PUT) {
+                    objects.put(record.keyHash, new ObjectMetadata(record.keyHash, record.length, record.creationTime,
+                            record.expirationTime, record.creationTime, segmentId, position + HEADER_SIZE));
+                } else {
+                    final ObjectMetadata removed = objects.get(record.keyHash);
+                    if (removed != null && removed.getLocation() == record.creationTime) objects.remove(record.keyHash);
+                }
+            }
+            position += recordSize(record.length);
+        }
+        return position;
+    }
+
+    private static long recordSize(long length) {
+        return HEADER_SIZE + length + TRAILER_SIZE;
+    }
+
+    private Segment openSegment(int segmentId) throws IOException {
+        final FileChannel channel = FileChannel.open(getSegmentFile(segmentId).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Segment segment = new Segment(channel, channel.size());
+        segments.put(segmentId, segment);
+        return segment;
+    }
+
+    private File getSegmentFile(int segmentId) {
+        return new File(folder, segmentId + FILE_EXT);
+    }
+
+    private void rollOver() throws IOException {
+        activeSegmentId++;
+        activeSegment = openSegment(activeSegmentId);
+    }
+
+    /**
+     * Appends object to the active segment and puts its metadata into the index unless the key is already stored.
+     * Index update is atomic with respect to compaction and concurrent appends.
+     *
+     * @param metadata metadata of the object, its location is set by append.
+     * @return false if the key is already in the index.
+     */
+    synchronized boolean append(ObjectMetadata metadata, byte[] bytes,
+                                Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        if (objects.containsKey(metadata.keyHash)) return false;
+        final long location = appendPut(metadata.keyHash, bytes, (int) metadata.size,
+                metadata.creationTime, metadata.expirationTime);
+        appendedBytes += recordSize(metadata.size);
+        metadata.relocate(ObjectMetadata.segmentIdOf(location), ObjectMetadata.offsetOf(location));
+        if (objects.putIfAbsent(metadata.keyHash, metadata) == null) return true;
+        /*key is stored in own file concurrently*/
+        writeRecord(TOMBSTONE, metadata.keyHash, location, 0, ByteBuffer.allocate(0));
+        activeSegment.liveBytes -= recordSize(metadata.size);
+        return false;
+    }
+
+    /**
+     * @return location of the appended object bytes.
+     */
+    private long appendPut(KeyHash keyHash, byte[] bytes, int length,
+                           long creationTime, long expirationTime) throws IOException {
+        if (activeSegment.totalBytes > 0 && activeSegment.totalBytes + recordSize(length) > maxSegmentBytes) {
+            rollOver();
+        }
+        final long location = ObjectMetadata.toLocation(activeSegmentId, activeSegment.totalBytes + HEADER_SIZE);
+        writeRecord(PUT, keyHash, creationTime, expirationTime, ByteBuffer.wrap(bytes, 0, length));
+        activeSegment.liveBytes += recordSize(length);
+        return location;
+    }
+
+    /**
+     * Removes packed object from the index and records its deletion.
+     * Index update and tombstone are atomic with respect to compaction.
+     *
+     * @return false if object was already removed or replaced.
+     */
+    synchronized boolean delete(ObjectMetadata metadata, Map<KeyHash, ObjectMetadata> objects) throws IOException {
+        if (!objects.remove(metadata.keyHash, metadata)) return false;
+        final long location = metadata.getLocation();
+        try {
+            writeRecord(TOMBSTONE, metadata.keyHash, location, 0, ByteBuffer.allocate(0));
+        } catch (IOException e) {
+            objects.put(metadata.keyHash, metadata);
+            throw e;
+        }
+        final Segment segment = segments.get(ObjectMetadata.segmentIdOf(location));
+        if (segment != null) segment.liveBytes -= recordSize(metadata.size);
+        return true;
+    }
+
+    private void writeRecord(byte type, KeyHash keyHash, long creationTime, long expirationTime,
+                             ByteBuffer data) throws IOException {
+        header.clear();
+        header.putInt(MAGIC).put(type).putLong(keyHash.high).putLong(keyHash.low)
+                .putLong(creationTime).putLong(expirationTime).putInt(data.remaining());
+        checksum.reset();
+        checksum.update(header.array(), 0, HEADER_SIZE);
+        checksum.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        header.flip();
+        trailer.clear();
+        trailer.putInt((int) checksum.getValue());
+        trailer.flip();
+
+        final ByteBuffer[] record = {header, data, trailer};
+        final long recordSize = recordSize(data.remaining());
+        long written = 0;
+        activeSegment.channel.position(activeSegment.totalBytes);
+        while (written < recordSize) {
+            written += activeSegment.channel.write(record);
+        }
+        activeSegment.totalBytes += recordSize;
+        unsyncedSegments.add(activeSegment);
+    }
+
+    /**
+     * Forces records appended so far to disk. Appends are not blocked while segments are forced.
+     */
+    @Override
+    public void sync() throws IOException {
+        final List<Segment> syncedSegments;
+        synchronized (this) {
+            syncedSegments = new ArrayList<Segment>(unsyncedSegments);
+            unsyncedSegments.clear();
+        }
+        for (Segment segment : syncedSegments) {
+            try {
+                segment.channel.force(false);
+            } catch (ClosedChannelException e) {
+                /*compacted segment, its live records are synced by compaction*/
+                if (segments.containsValue(segment)) throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads packed object with one positional read. Retries if object is moved by compaction meanwhile.
+     */
+    byte[] read(ObjectMetadata metadata) throws IOException {
+        final byte[] bytes = new byte[(int) metadata.size];
+        read(metadata, 0, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Reads part of packed object starting at the specified position of the object into the buffer.
+     * Buffer must not have more space than the rest of the object.
+     */
+    void read(ObjectMetadata metadata, long position, ByteBuffer buffer) throws IOException {
+        final int bufferPosition = buffer.position();
+        while (true) {
+            final long location = metadata.getLocation();
+            final Segment segment = segments.get(ObjectMetadata.segmentIdOf(location));
+            try {
+                if (segment == null) throw new FileNotFoundException("Segment of the object doesn't exist");
+                readFully(segment.channel, buffer, ObjectMetadata.offsetOf(location) + position);
+                return;
+            } catch (IOException e) {
+                if (metadata.getLocation() == location) throw e;
+                buffer.position(bufferPosition);
+            }
+        }
+    }
+
+    /**
+     * Transfers part of packed object starting at the specified position of the object to the channel
+     * by {@link FileChannel#transferTo}. If object is moved by compaction meanwhile,
+     * transfer continues from its new location.
+     *
+     * @param count amount of transferred bytes, must not exceed the rest of the object.
+     * @return amount of transferred bytes, less than count only if non-blocking target accepts no more bytes.
+     */
+    long transferTo(ObjectMetadata metadata, long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            final long location = metadata.getLocation();
+            final Segment segment = segments.get(ObjectMetadata.segmentIdOf(location));
+            try {
+                if (segment == null) throw new FileNotFoundException("Segment of the object doesn't exist");
+                final long offset = ObjectMetadata.offsetOf(location) + position;
+                while (transferred < count) {
+                    final long bytes = segment.channel.transferTo(offset + transferred, count - transferred, target);
+                    if (bytes <= 0) return transferred;
+                    transferred += bytes;
+                }
+            } catch (IOException e) {
+                if (metadata.getLocation() == location) throw e;
+            }
+        }
+        return transferred;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * @return id of sealed segment with the lowest share of live bytes below the threshold, or 0 if there is none.
+     */
+    synchronized int findCompactionCandidate(double livenessThreshold) {
+        int candidateId = 0;
+        double candidateLiveness = livenessThreshold;
+        for (Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+            if (entry.getKey() == activeSegmentId) continue;
+            final Segment segment = entry.getValue();
+            final double liveness = segment.totalBytes == 0 ? 0 : (double) segment.liveBytes / segment.totalBytes;
+            if (liveness < candidateLiveness) {
+                candidateId = entry.getKey();
+                candidateLiveness = liveness;
+            }
+        }
+        return candidateId;
+    }
+
+    /**
+     * Copies live records of the sealed segment to the active segment and deletes the segment.
+     * Tombstones are copied while the segment they refer to exists.
+     * Segment is read sequentially, each record is copied under the store lock.
+     *
+     * @return amount of copied bytes.
+     */
+    long compact(int segmentId, Map<KeyHash, ObjectMetadata> objects, Listener listener,
+                 Throttle throttle) throws IOException, InterruptedException {
+        final Segment segment = segments.get(segmentId);
+        if (segment == null || segmentId == activeSegmentId) return 0;
+        final DataInputStream inputStream = openSequential(segment.channel);
+        final Record record = new Record();
+        final CRC32 recordChecksum = new CRC32();
+        final long size = segment.totalBytes;
+        long position = 0;
+        long copiedBytes = 0;
+        long startTime = System.nanoTime();
+        long unthrottledBytes = 0;
+        while (readRecord(inputStream, record, recordChecksum, size - position)) {
+            final long recordLocation = ObjectMetadata.toLocation(segmentId, position + HEADER_SIZE);
+            synchronized (this) {
+                if (record.type == PUT) {
+                    final ObjectMetadata metadata = objects.get(record.keyHash);
+                    if (metadata != null && metadata.getLocation() == recordLocation) {
+                        final long location = appendPut(record.keyHash, record.data, record.length,
+                                record.creationTime, record.expirationTime);
+                        metadata.relocate(ObjectMetadata.segmentIdOf(location), ObjectMetadata.offsetOf(location));
+                        segment.liveBytes -= recordSize(record.length);
+                        copiedBytes += recordSize(record.length);
+                        listener.onRelocated(metadata);
+                    }
+                } else if (segments.containsKey(ObjectMetadata.segmentIdOf(record.creationTime))
+                        && ObjectMetadata.segmentIdOf(record.creationTime) != segmentId) {
+                    writeRecord(TOMBSTONE, record.keyHash, record.creationTime, 0, ByteBuffer.allocate(0));
+                    copiedBytes += recordSize(0);
+                }
+            }
+            position += recordSize(record.length);
+            unthrottledBytes += recordSize(record.length);
+            if (unthrottledBytes >= COMPACTION_BUFFER_SIZE) {
+                throttle.onCompacted(unthrottledBytes, System.nanoTime() - startTime);
+                unthrottledBytes = 0;
+                startTime = System.nanoTime();
+            }
+        }
+        sync();
+        listener.onCopiesSynced();
+        synchronized (this) {
+            segments.remove(segmentId);
+            unsyncedSegments.remove(segment);
+        }
+        segment.channel.close();
+        if (!getSegmentFile(segmentId).delete()) getSegmentFile(segmentId).deleteOnExit();
+        return copiedBytes;
+    }
+
+    /**
+     * @return amount of segment files.
+     */
+    int getSegmentsCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return bytes of the segment file, 0 if segment doesn't exist.
+     */
+    synchronized long getSegmentBytes(int segmentId) {
+        final Segment segment = segments.get(segmentId);
+        return segment != null ? segment.totalBytes : 0;
+    }
+
+    /**
+     * @return bytes of all segment files.
+     */
+    synchronized long getTotalBytes() {
+        long totalBytes = 0;
+        for (Segment segment : segments.values()) {
+            totalBytes += segment.totalBytes;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * @return bytes of live records in all segments.
+     */
+    synchronized long getLiveBytes() {
+        long liveBytes = 0;
+        for (Segment segment : segments.values()) {
+            liveBytes += segment.liveBytes;
+        }
+        return liveBytes;
+    }
+
+    /**
+     * @return bytes of records appended for saved objects, compaction copies are not counted.
+     */
+    synchronized long getAppendedBytes() {
+        return appendedBytes;
+    }
+
+    /**
+     * Closes all segments, store must not be used afterwards.
+     */
+    synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+        unsyncedSegments.clear();
+        activeSegment = null;
+    }
+}
@@ -0,0 +1,166 @@
+package com.teamdev.filestorage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free accounting of storage space.
+ * Writer reserves expected object size up front, then commits actually written bytes or releases reservation.
+ * Reserved and used bytes are claimed from allocated space by CAS, so concurrent writers never exceed it
+ * and never lose updates.
+ *
+ * @author Alex Geta
+ */
+class SpaceLedger {
+
+    /**
+     * Space reserved by one writer.
+     */
+    final class Reservation {
+        private long reservedBytes;
+        private boolean isFinished;
+
+        private Reservation(long reservedBytes) {
+            this.reservedBytes = reservedBytes;
+        }
+
+        /**
+         * @return amount of reserved bytes.
+         */
+        long getReservedBytes() {
+            return reservedBytes;
+        }
+
+        /**
+         * Reserves additional bytes.
+         *
+         * @return false if there is not enough free space.
+         */
+        boolean grow(long bytes) {
+            if (!claim(bytes)) return false;
+            reservedBytes += bytes;
+            return true;
+        }
+
+        /**
+         * Turns the specified amount of bytes into used space, the rest of reservation is released.
+         *
+         * @param writtenBytes amount of bytes written by the writer, must not exceed reserved amount.
+         */
+        void commit(long writtenBytes) {
+            if (writtenBytes > reservedBytes) throw new IllegalStateException("Written bytes exceed reservation");
+            finish();
+            objectsCount.incrementAndGet();
+            usedBytes.addAndGet(writtenBytes);
+            claimedBytes.addAndGet(writtenBytes - reservedBytes);
+            if (writtenBytes < reservedBytes) onSpaceFreed();
+        }
+
+        /**
+         * Returns whole reservation back to free space. Does nothing if reservation is already committed.
+         */
+        void release() {
+            if (isFinished) return;
+            finish();
+            claimedBytes.addAndGet(-reservedBytes);
+            onSpaceFreed();
+        }
+
+        private void finish() {
+            if (isFinished) throw new IllegalStateException("Reservation is already finished");
+            isFinished = true;
+        }
+    }
+
+    private final long allocatedBytes;
+    /**
+     * Used plus reserved bytes.
+     */
+    private final AtomicLong claimedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong objectsCount = new AtomicLong();
+    private volatile Runnable spaceFreedListener;
+
+    SpaceLedger(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Reserves the specified amount of bytes.
+     *
+     * @return reservation or null if there is not enough free space.
+     */
+    Reservation reserve(long bytes) {
+        return claim(bytes) ? new Reservation(bytes) : null;
+    }
+
+    private boolean claim(long bytes) {
+        while (true) {
+            final long claimed = claimedBytes.get();
+            if (claimed + bytes > allocatedBytes) return false;
+            if (claimedBytes.compareAndSet(claimed, claimed + bytes)) return true;
+        }
+    }
+
+    /**
+     * Accounts objects found in storage on startup. They may exceed allocated space.
+     */
+    void recover(long objects, long bytes) {
+        objectsCount.addAndGet(objects);
+        usedBytes.addAndGet(bytes);
+        claimedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Returns used bytes of deleted object back to free space.
+     */
+    void free(long bytes) {
+        objectsCount.decrementAndGet();
+        usedBytes.addAndGet(-bytes);
+        claimedBytes.addAndGet(-bytes);
+        onSpaceFreed();
+    }
+
+    /**
+     * Sets listener called after space is returned by released reservation or deleted object.
+     */
+    void setSpaceFreedListener(Runnable spaceFreedListener) {
+        this.spaceFreedListener = spaceFreedListener;
+    }
+
+    private void onSpaceFreed() {
+        final Runnable listener = spaceFreedListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * @return amount of bytes neither used nor reserved.
+     */
+    long getFreeBytes() {
+        return allocatedBytes - claimedBytes.get();
+    }
+
+    /**
+     * @return amount of bytes occupied by stored objects.
+     */
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return amount of bytes reserved by unfinished writes.
+     */
+    long getReservedBytes() {
+        return claimedBytes.get() - usedBytes.get();
+    }
+
+    /**
+     * @return amount of stored objects.
+     */
+    long getObjectsCount() {
+        return objectsCount.get();
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
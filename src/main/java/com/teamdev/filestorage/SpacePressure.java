@@ -0,0 +1,272 @@
+package com.teamdev.filestorage;
+
+import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinates writers which can't claim space with the parties freeing it.
+ * Writer publishes space request and waits on its future, while callback of the writer
+ * is invoked on pressure thread and background reclaimer evicts objects concurrently.
+ * Pending requests are retried in arrival order whenever space is freed.
+ * Request fails when its deadline passes or when neither callback nor reclaimer can free more space.
+ *
+ * @author Alex Geta
+ */
+public class SpacePressure {
+
+    /**
+     * Attempt to claim space for the request.
+     */
+    interface Claim {
+        /**
+         * @return reservation holding claimed space, or null if there is not enough free space.
+         */
+        SpaceLedger.Reservation tryClaim();
+    }
+
+    /**
+     * Future of space request, completes with reservation or fails.
+     */
+    final class ReservationFuture {
+        private final long bytes;
+        private final Claim claim;
+        private final long startTime = System.nanoTime();
+        private final CountDownLatch completion = new CountDownLatch(1);
+        private SpaceLedger.Reservation reservation;
+        private boolean isDone;
+        /**
+         * Amount of callback and reclaimer which may still free space for the request.
+         */
+        private int activeHandlers;
+        private boolean isDeclinedByReclaimer;
+
+        private ReservationFuture(long bytes, Claim claim) {
+            this.bytes = bytes;
+            this.claim = claim;
+        }
+
+        /**
+         * Waits for space until deadline.
+         *
+         * @param timeoutMillis max waiting time in milliseconds.
+         * @return reservation holding claimed space.
+         * @throws NotEnoughFreeSpaceException if space isn't freed in time or can't be freed at all.
+         */
+        SpaceLedger.Reservation get(long timeoutMillis) throws NotEnoughFreeSpaceException {
+            try {
+                completion.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (SpacePressure.this) {
+                if (!isDone) finish(null);
+            }
+            recordStall(System.nanoTime() - startTime, reservation != null);
+            if (reservation == null) throw new NotEnoughFreeSpaceException();
+            return reservation;
+        }
+
+        private boolean tryComplete() {
+            final SpaceLedger.Reservation claimed = claim.tryClaim();
+            if (claimed == null) return false;
+            finish(claimed);
+            return true;
+        }
+
+        private void decline() {
+            if (!isDone && --activeHandlers <= 0 && !tryComplete()) finish(null);
+        }
+
+        private void finish(SpaceLedger.Reservation reservation) {
+            this.reservation = reservation;
+            isDone = true;
+            pendingRequests.remove(this);
+            pendingRequestsCount = pendingRequests.size();
+            demandedBytes -= bytes;
+            completion.countDown();
+        }
+    }
+
+    private final SpaceLedger spaceLedger;
+    private final SpaceReclaimer spaceReclaimer;
+    private final ExecutorService callbackExecutor;
+    private final List<ReservationFuture> pendingRequests = new LinkedList<ReservationFuture>();
+    private volatile int pendingRequestsCount;
+    private long demandedBytes;
+    private boolean isClosed;
+
+    private final AtomicLong stallsCount = new AtomicLong();
+    private final AtomicLong failedStallsCount = new AtomicLong();
+    private final AtomicLong stallNanos = new AtomicLong();
+    private final AtomicLong maxStallNanos = new AtomicLong();
+
+    SpacePressure(SpaceLedger spaceLedger, SpaceReclaimer spaceReclaimer) {
+        this.spaceLedger = spaceLedger;
+        this.spaceReclaimer = spaceReclaimer;
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorageSpacePressure");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * Claims space at once or publishes request for it.
+     *
+     * @param bytes    amount of bytes the claim needs.
+     * @param callBack callback asked to free space on pressure thread, may be null.
+     * @return future of the request, already completed if space is claimed or there is nobody to free it.
+     */
+    ReservationFuture request(long bytes, Claim claim, final CallBack callBack) {
+        final ReservationFuture future = new ReservationFuture(bytes, claim);
+        final long deficitBytes;
+        final boolean isCallbackUsed;
+        synchronized (this) {
+            pendingRequests.add(future);
+            pendingRequestsCount = pendingRequests.size();
+            demandedBytes += bytes;
+            if (future.tryComplete()) return future;
+            isCallbackUsed = callBack != null && !isClosed;
+            if (isCallbackUsed) future.activeHandlers++;
+            if (spaceReclaimer != null && !isClosed) future.activeHandlers++;
+            if (future.activeHandlers == 0) {
+                future.finish(null);
+                return future;
+            }
+            deficitBytes = bytes - spaceLedger.getFreeBytes();
+        }
+        if (spaceReclaimer != null) spaceReclaimer.onSpacePressure();
+        if (isCallbackUsed) {
+            execute(future, new Runnable() {
+                @Override
+                public void run() {
+                    boolean isEnough = false;
+                    try {
+                        isEnough = callBack.isEnough(deficitBytes);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    synchronized (SpacePressure.this) {
+                        if (!isEnough) future.decline();
+                        else if (!future.isDone) future.tryComplete();
+                    }
+                }
+            });
+        }
+        return future;
+    }
+
+    private void execute(ReservationFuture future, Runnable callbackTask) {
+        try {
+            callbackExecutor.execute(callbackTask);
+        } catch (RejectedExecutionException e) {
+            /*closed concurrently*/
+            synchronized (this) {
+                future.decline();
+            }
+        }
+    }
+
+    /**
+     * Fails pending requests and waits for callback in progress. Called when storage is closed.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            isClosed = true;
+            for (ReservationFuture future : new ArrayList<ReservationFuture>(pendingRequests)) {
+                if (!future.isDone) future.finish(null);
+            }
+        }
+        callbackExecutor.shutdownNow();
+        callbackExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retries pending requests in arrival order. Called whenever space is freed.
+     */
+    void onSpaceFreed() {
+        if (pendingRequestsCount == 0) return;
+        synchronized (this) {
+            final Iterator<ReservationFuture> iterator = new ArrayList<ReservationFuture>(pendingRequests).iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().tryComplete()) return;
+            }
+        }
+    }
+
+    /**
+     * Fails pending requests which are not served by callback, called when reclaimer has nothing to evict.
+     */
+    synchronized void onReclaimerExhausted() {
+        for (ReservationFuture future : new ArrayList<ReservationFuture>(pendingRequests)) {
+            if (!future.isDeclinedByReclaimer) {
+                future.isDeclinedByReclaimer = true;
+                future.decline();
+            }
+        }
+    }
+
+    /**
+     * @return bytes amount requested by waiting writers.
+     */
+    synchronized long getDemandedBytes() {
+        return demandedBytes;
+    }
+
+    private void recordStall(long stall, boolean isClaimed) {
+        stallsCount.incrementAndGet();
+        stallNanos.addAndGet(stall);
+        while (true) {
+            final long max = maxStallNanos.get();
+            if (stall <= max || maxStallNanos.compareAndSet(max, stall)) break;
+        }
+        if (!isClaimed) failedStallsCount.incrementAndGet();
+    }
+
+    /**
+     * @return amount of writers waiting for space.
+     */
+    public int getPendingRequestsCount() {
+        return pendingRequestsCount;
+    }
+
+    /**
+     * @return amount of writes which waited for space.
+     */
+    public long getStallsCount() {
+        return stallsCount.get();
+    }
+
+    /**
+     * @return amount of writes which waited for space and failed to get it.
+     */
+    public long getFailedStallsCount() {
+        return failedStallsCount.get();
+    }
+
+    /**
+     * @return total time writes waited for space in milliseconds.
+     */
+    public long getStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.get());
+    }
+
+    /**
+     * @return the longest time one write waited for space in milliseconds.
+     */
+    public long getMaxStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxStallNanos.get());
+    }
+}
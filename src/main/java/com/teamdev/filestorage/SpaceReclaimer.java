@@ -0,0 +1,179 @@
+package com.teamdev.filestorage;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background service evicting objects when claimed space crosses high watermark, until it drops to low watermark.
+ * Eviction goes in batches limited by configured rate, so reclaiming doesn't starve foreground I/O.
+ * Writers which can't reserve space publish their demand through {@link SpacePressure}, reclaimer then evicts
+ * their bytes as well and ignores rate limit while somebody waits.
+ * Reclaiming thread is started on demand and stops when usage is below low watermark.
+ *
+ * @author Alex Geta
+ */
+public class SpaceReclaimer implements Runnable {
+
+    /**
+     * Max amount of bytes evicted at once.
+     */
+    private static final long BATCH_BYTES = 4 * 1024 * 1024;
+    private static final long IDLE_KEEP_ALIVE_MS = 1000;
+
+    private final FileStorageImpl fileStorage;
+    private final SpaceLedger spaceLedger;
+    private final long highWatermarkBytes;
+    private final long lowWatermarkBytes;
+    private final long rateBytesPerSecond;
+    private final ThreadPoolExecutor reclaimingExecutor;
+    private final AtomicBoolean running = new AtomicBoolean();
+    /**
+     * Wakes throttled reclaimer when writer starts waiting.
+     */
+    private final Object throttleMonitor = new Object();
+    private SpacePressure spacePressure;
+
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final AtomicLong reclaimedBatches = new AtomicLong();
+
+    SpaceReclaimer(FileStorageImpl fileStorage, SpaceLedger spaceLedger, FileStorageConfig config) {
+        this.fileStorage = fileStorage;
+        this.spaceLedger = spaceLedger;
+        this.highWatermarkBytes = (long) (spaceLedger.getAllocatedBytes() * config.getReclaimHighWatermark());
+        this.lowWatermarkBytes = (long) (spaceLedger.getAllocatedBytes() * config.getReclaimLowWatermark());
+        this.rateBytesPerSecond = config.getReclaimRateBytesPerSecond();
+        this.reclaimingExecutor = new ThreadPoolExecutor(1, 1, IDLE_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "FileStorageReclaimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.reclaimingExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts reclaiming if claimed space crossed high watermark. Called after space is claimed.
+     */
+    void onSpaceClaimed() {
+        if (getClaimedBytes() > highWatermarkBytes) startReclaiming();
+    }
+
+    void setSpacePressure(SpacePressure spacePressure) {
+        this.spacePressure = spacePressure;
+    }
+
+    /**
+     * Starts reclaiming for writers waiting for space, wakes reclaimer up if it is throttled.
+     */
+    void onSpacePressure() {
+        startReclaiming();
+        synchronized (throttleMonitor) {
+            throttleMonitor.notifyAll();
+        }
+    }
+
+    private void startReclaiming() {
+        if (reclaimingExecutor.isShutdown()) return;
+        if (running.compareAndSet(false, true)) {
+            try {
+                reclaimingExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                /*closed concurrently*/
+                running.set(false);
+            }
+        }
+    }
+
+    /**
+     * Interrupts reclaiming and waits for reclaiming thread to stop, the batch in progress is finished first.
+     */
+    void close() throws InterruptedException {
+        reclaimingExecutor.shutdownNow();
+        reclaimingExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        boolean isExhausted = false;
+        try {
+            long excessBytes;
+            while (!isExhausted && !Thread.currentThread().isInterrupted()
+                    && (excessBytes = getClaimedBytes() - getTargetBytes()) > 0) {
+                final long batchStart = System.nanoTime();
+                final long reclaimed = fileStorage.clean(Math.min(getBatchBytes(), excessBytes));
+                if (reclaimed > 0) {
+                    reclaimedBytes.addAndGet(reclaimed);
+                    reclaimedBatches.incrementAndGet();
+                    throttle(reclaimed, System.nanoTime() - batchStart);
+                } else isExhausted = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+        if (isExhausted) spacePressure.onReclaimerExhausted();
+        else if (getClaimedBytes() > getTargetBytes()) startReclaiming();
+    }
+
+    /**
+     * @return bytes amount evicted at once, a tenth of second of rate limit at most.
+     */
+    private long getBatchBytes() {
+        return rateBytesPerSecond > 0 ? Math.max(1, Math.min(BATCH_BYTES, rateBytesPerSecond / 10)) : BATCH_BYTES;
+    }
+
+    /**
+     * Sleeps so that average eviction rate doesn't exceed the limit, wakes up when writer starts waiting.
+     */
+    private void throttle(long reclaimed, long elapsedNanos) throws InterruptedException {
+        if (rateBytesPerSecond <= 0 || spacePressure.getDemandedBytes() > 0) return;
+        final long wakeUpTime = System.nanoTime() - elapsedNanos + TimeUnit.SECONDS.toNanos(1) * reclaimed / rateBytesPerSecond;
+        synchronized (throttleMonitor) {
+            long remainingNanos;
+            while (spacePressure.getDemandedBytes() == 0 && (remainingNanos = wakeUpTime - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(throttleMonitor, remainingNanos);
+            }
+        }
+    }
+
+    /**
+     * @return claimed bytes amount to reclaim down to: low watermark, lower if stalled writers need more space.
+     */
+    private long getTargetBytes() {
+        return Math.min(lowWatermarkBytes, spaceLedger.getAllocatedBytes() - spacePressure.getDemandedBytes());
+    }
+
+    private long getClaimedBytes() {
+        return spaceLedger.getAllocatedBytes() - spaceLedger.getFreeBytes();
+    }
+
+    /**
+     * @return total amount of bytes evicted by reclaimer.
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return amount of eviction batches which freed space.
+     */
+    public long getReclaimedBatchesCount() {
+        return reclaimedBatches.get();
+    }
+
+    /**
+     * @return true while reclaiming thread is evicting objects.
+     */
+    public boolean isReclaiming() {
+        return running.get();
+    }
+}
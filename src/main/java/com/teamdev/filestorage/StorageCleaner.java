@@ -0,0 +1,162 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes object files chosen for eviction in parallel. Victims are partitioned by top level hash folder,
+ * every partition is deleted by its own fork-join task, so tasks never touch the same folders.
+ * Empty folders are pruned once per partition after all its files are deleted, deepest first,
+ * by plain folder deletion which fails on non empty folder instead of listing it.
+ * Small victim sets are deleted on the calling thread.
+ * Every victim is deleted under write lock of its key. Victim whose key is locked is skipped rather than waited for,
+ * victim which was deleted or replaced meanwhile is skipped as stale.
+ *
+ * @author Alex Geta
+ */
+class StorageCleaner {
+
+    /**
+     * Receives results of deletion, must be thread safe.
+     */
+    interface Listener {
+        /**
+         * Called under write lock of the key before the file of the object is deleted.
+         */
+        void onDeleting(ObjectMetadata object);
+
+        /**
+         * Called under write lock of the key for every object whose file is deleted and which is removed from index,
+         * so that concurrent save of the same key is never accounted before the removal.
+         */
+        void onRemoved(ObjectMetadata object);
+
+        /**
+         * Called for object whose file can't be deleted or whose key is locked.
+         */
+        void onFailed(ObjectMetadata object);
+    }
+
+    /**
+     * Victims count below which fork-join pool is not used.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final File rootFolder;
+    private final PathEncoder pathEncoder;
+    private final ForkJoinPool pool;
+    private final Map<KeyHash, ObjectMetadata> objects;
+    private final KeyLockTable keyLocks;
+    private final Listener listener;
+
+    StorageCleaner(File rootFolder, PathEncoder pathEncoder, int parallelism, Map<KeyHash, ObjectMetadata> objects,
+                   KeyLockTable keyLocks, Listener listener) {
+        this.rootFolder = rootFolder;
+        this.pathEncoder = pathEncoder;
+        this.pool = new ForkJoinPool(parallelism);
+        this.objects = objects;
+        this.keyLocks = keyLocks;
+        this.listener = listener;
+    }
+
+    /**
+     * Waits for deletion in progress and stops fork-join pool.
+     */
+    void close() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deletes files of the specified objects.
+     *
+     * @return amount of deleted bytes.
+     */
+    long delete(List<ObjectMetadata> victims) {
+        final AtomicLong deletedBytes = new AtomicLong();
+        final Map<Integer, List<ObjectMetadata>> partitions = new HashMap<Integer, List<ObjectMetadata>>();
+        for (ObjectMetadata victim : victims) {
+            final Integer folderIndex = PathEncoder.getTopFolderIndex(victim.keyHash);
+            List<ObjectMetadata> partition = partitions.get(folderIndex);
+            if (partition == null) {
+                partition = new ArrayList<ObjectMetadata>();
+                partitions.put(folderIndex, partition);
+            }
+            partition.add(victim);
+        }
+
+        final List<PartitionTask> tasks = new ArrayList<PartitionTask>(partitions.size());
+        for (List<ObjectMetadata> partition : partitions.values()) {
+            tasks.add(new PartitionTask(partition, deletedBytes));
+        }
+        if (victims.size() < SEQUENTIAL_THRESHOLD) {
+            for (PartitionTask task : tasks) task.compute();
+        } else {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        }
+        return deletedBytes.get();
+    }
+
+    private class PartitionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ObjectMetadata> partition;
+        private final AtomicLong deletedBytes;
+
+        PartitionTask(List<ObjectMetadata> partition, AtomicLong deletedBytes) {
+            this.partition = partition;
+            this.deletedBytes = deletedBytes;
+        }
+
+        @Override
+        protected void compute() {
+            final Set<File> folders = new HashSet<File>();
+            long bytes = 0;
+            for (ObjectMetadata object : partition) {
+                if (!keyLocks.tryLockWrite(object.keyHash)) {
+                    listener.onFailed(object);
+                    continue;
+                }
+                try {
+                    if (objects.get(object.keyHash) != object) continue;
+                    final File file = pathEncoder.getFile(object.keyHash);
+                    listener.onDeleting(object);
+                    if (file.delete()) {
+                        objects.remove(object.keyHash, object);
+                        listener.onRemoved(object);
+                        folders.add(file.getParentFile());
+                        bytes += object.size;
+                    } else listener.onFailed(object);
+                } finally {
+                    keyLocks.unlockWrite(object.keyHash);
+                }
+            }
+            deletedBytes.addAndGet(bytes);
+            pruneEmptyFolders(folders);
+        }
+
+        /**
+         * Deletes empty folders level by level up to the top level folder.
+         */
+        private void pruneEmptyFolders(Set<File> folders) {
+            Set<File> level = folders;
+            while (!level.isEmpty()) {
+                final Set<File> parents = new HashSet<File>();
+                for (File folder : level) {
+                    if (folder.equals(rootFolder) || !folder.delete()) continue;
+                    parents.add(folder.getParentFile());
+                }
+                level = parents;
+            }
+        }
+    }
+}
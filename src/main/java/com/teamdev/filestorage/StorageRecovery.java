@@ -0,0 +1,116 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks hex fan-out folders of the storage in parallel and reports every found object file
+ * and temporary file of unfinished write.
+ * Only folders named by {@link PathEncoder#CHUNK_SIZE} hex chars and files with
+ * {@link PathEncoder#FILE_EXT} or {@link PathEncoder#TEMP_EXT} extension on the deepest level are taken
+ * into account, so descriptor and index files of the root folder are skipped.
+ *
+ * @author Alex Geta
+ */
+class StorageRecovery {
+
+    /**
+     * Receives found objects, must be thread safe.
+     */
+    interface Listener {
+        void onFileFound(File file, BasicFileAttributes attributes);
+
+        void onTemporaryFileFound(File file);
+    }
+
+    private final File rootFolder;
+    private final int parallelism;
+    private final Listener listener;
+    /**
+     * False if only temporary files are reported.
+     */
+    private final boolean isObjectsReported;
+    private final AtomicLong filesCount = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    StorageRecovery(File rootFolder, int parallelism, Listener listener) {
+        this(rootFolder, parallelism, listener, true);
+    }
+
+    StorageRecovery(File rootFolder, int parallelism, Listener listener, boolean isObjectsReported) {
+        this.rootFolder = rootFolder;
+        this.parallelism = parallelism;
+        this.listener = listener;
+        this.isObjectsReported = isObjectsReported;
+    }
+
+    RecoveryReport run() {
+        final long startTime = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new FolderTask(rootFolder, 0));
+        } finally {
+            pool.shutdown();
+        }
+        return new RecoveryReport(filesCount.get(), bytes.get(), System.nanoTime() - startTime, false);
+    }
+
+    private class FolderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File folder;
+        private final int level;
+
+        FolderTask(File folder, int level) {
+            this.folder = folder;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            final File[] children = folder.listFiles();
+            if (children == null) return;
+            if (level == PathEncoder.FOLDER_TREE_HEIGHT) {
+                for (File child : children) {
+                    if (child.getName().endsWith(PathEncoder.TEMP_EXT)) listener.onTemporaryFileFound(child);
+                    else if (isObjectsReported && child.getName().endsWith(PathEncoder.FILE_EXT)) processFile(child);
+                }
+                return;
+            }
+            final List<FolderTask> subtasks = new ArrayList<FolderTask>();
+            for (File child : children) {
+                if (isHashFolderName(child.getName()) && child.isDirectory()) {
+                    subtasks.add(new FolderTask(child, level + 1));
+                }
+            }
+            invokeAll(subtasks);
+        }
+
+        private void processFile(File file) {
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) return;
+                filesCount.incrementAndGet();
+                bytes.addAndGet(attributes.size());
+                listener.onFileFound(file, attributes);
+            } catch (IOException e) {
+                /*file was deleted meanwhile*/
+            }
+        }
+    }
+
+    private static boolean isHashFolderName(String name) {
+        if (name.length() != PathEncoder.CHUNK_SIZE) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,136 @@
+package com.teamdev.filestorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hierarchical timing wheel. Every level has the same amount of buckets, tick of the next level
+ * equals to the whole interval of the previous one. Entry is put to the lowest level which interval
+ * covers its deadline, so insert is O(1). Only non-empty buckets are put to the shared DelayQueue,
+ * thus amount of queued objects is bounded by amount of buckets rather than amount of entries.
+ * When bucket of upper level is due its entries are cascaded down to more precise levels.
+ * Entries may be added concurrently, but callers must guard add against advanceClock.
+ *
+ * @author Alex Geta
+ */
+class TimingWheel {
+
+    /**
+     * Scheduled deadline of the key.
+     */
+    static final class Entry {
+        final KeyHash keyHash;
+        final long deadline;
+
+        Entry(KeyHash keyHash, long deadline) {
+            this.keyHash = keyHash;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Entries with deadlines within one tick of some level.
+     */
+    static final class Bucket implements Delayed {
+        private final AtomicLong expiration = new AtomicLong(-1);
+        private List<Entry> entries = new ArrayList<Entry>();
+
+        synchronized void add(Entry entry) {
+            entries.add(entry);
+        }
+
+        /**
+         * @return true if expiration changed and bucket must be queued again.
+         */
+        boolean setExpiration(long expiration) {
+            return this.expiration.getAndSet(expiration) != expiration;
+        }
+
+        long getExpiration() {
+            return expiration.get();
+        }
+
+        synchronized List<Entry> flush() {
+            final List<Entry> flushed = entries;
+            entries = new ArrayList<Entry>();
+            expiration.set(-1);
+            return flushed;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(getExpiration() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            final long otherExpiration = ((Bucket) other).getExpiration();
+            final long expiration = getExpiration();
+            return expiration < otherExpiration ? -1 : (expiration == otherExpiration ? 0 : 1);
+        }
+    }
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long interval;
+    private final Bucket[] buckets;
+    private final DelayQueue<Bucket> queue;
+    private long currentTime;
+    private volatile TimingWheel overflowWheel;
+
+    TimingWheel(long tickMs, int wheelSize, long startMs, DelayQueue<Bucket> queue) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.interval = tickMs * wheelSize;
+        this.queue = queue;
+        this.currentTime = startMs - startMs % tickMs;
+        this.buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Puts entry to the wheel.
+     *
+     * @return false if entry is already due and must be expired by caller.
+     */
+    boolean add(Entry entry) {
+        if (entry.deadline < currentTime + tickMs) {
+            return false;
+        } else if (entry.deadline < currentTime + interval) {
+            final long virtualId = entry.deadline / tickMs;
+            final Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+            bucket.add(entry);
+            if (bucket.setExpiration(virtualId * tickMs)) queue.offer(bucket);
+            return true;
+        } else {
+            return getOverflowWheel().add(entry);
+        }
+    }
+
+    private TimingWheel getOverflowWheel() {
+        if (overflowWheel == null) {
+            synchronized (this) {
+                if (overflowWheel == null) {
+                    overflowWheel = new TimingWheel(interval, wheelSize, currentTime, queue);
+                }
+            }
+        }
+        return overflowWheel;
+    }
+
+    /**
+     * Moves current time of all levels forward.
+     */
+    void advanceClock(long timeMs) {
+        if (timeMs >= currentTime + tickMs) {
+            currentTime = timeMs - timeMs % tickMs;
+            if (overflowWheel != null) overflowWheel.advanceClock(currentTime);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.teamdev.filestorage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * W-TinyLFU policy. New objects enter small LRU window (1% of objects), objects leaving the window go to
+ * probation segment of the main area and are promoted to protected segment (80% of the main area) when read again.
+ * When cleaning, the least recent window object competes with the least recent probation object:
+ * the one read less often according to count-min frequency sketch is evicted, the winner stays in probation.
+ * Read frequencies are tracked for evicted keys as well, so popular objects saved again are kept.
+ *
+ * @author Alex Geta
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final LinkedHashMap<KeyHash, ObjectMetadata> window = createSegment();
+    private final LinkedHashMap<KeyHash, ObjectMetadata> probation = createSegment();
+    private final LinkedHashMap<KeyHash, ObjectMetadata> protectedSegment = createSegment();
+    private final FrequencySketch sketch = new FrequencySketch(1024);
+
+    private static LinkedHashMap<KeyHash, ObjectMetadata> createSegment() {
+        return new LinkedHashMap<KeyHash, ObjectMetadata>(16, 0.75f, true);
+    }
+
+    @Override
+    public synchronized void onAdd(ObjectMetadata object) {
+        onRemove(object);
+        sketch.increment(object.keyHash.low);
+        window.put(object.keyHash, object);
+        sketch.ensureCapacity(size());
+        if (window.size() > Math.max(1, (long) (size() * WINDOW_RATIO))) {
+            final ObjectMetadata overflow = pollFirst(window);
+            probation.put(overflow.keyHash, overflow);
+        }
+    }
+
+    @Override
+    public synchronized void onAccess(ObjectMetadata object) {
+        sketch.increment(object.keyHash.low);
+        if (window.get(object.keyHash) != null || protectedSegment.get(object.keyHash) != null) return;
+        if (probation.remove(object.keyHash) != null) {
+            protectedSegment.put(object.keyHash, object);
+            final long mainSize = probation.size() + protectedSegment.size();
+            if (protectedSegment.size() > (long) (mainSize * PROTECTED_RATIO)) {
+                final ObjectMetadata demoted = pollFirst(protectedSegment);
+                probation.put(demoted.keyHash, demoted);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onRemove(ObjectMetadata object) {
+        if (window.remove(object.keyHash) == null && probation.remove(object.keyHash) == null) {
+            protectedSegment.remove(object.keyHash);
+        }
+    }
+
+    @Override
+    public synchronized List<ObjectMetadata> pollVictims(long bytes) {
+        final List<ObjectMetadata> victims = new ArrayList<ObjectMetadata>();
+        long victimsBytes = 0;
+        while (victimsBytes < bytes && size() > 0) {
+            final ObjectMetadata victim = pollVictim();
+            victims.add(victim);
+            victimsBytes += victim.size;
+        }
+        return victims;
+    }
+
+    private ObjectMetadata pollVictim() {
+        if (window.isEmpty() && probation.isEmpty()) return pollFirst(protectedSegment);
+        if (window.isEmpty()) return pollFirst(probation);
+        if (probation.isEmpty()) return pollFirst(window);
+
+        final ObjectMetadata candidate = pollFirst(window);
+        final ObjectMetadata probationVictim = first(probation);
+        if (sketch.frequency(candidate.keyHash.low) > sketch.frequency(probationVictim.keyHash.low)) {
+            probation.remove(probationVictim.keyHash);
+            probation.put(candidate.keyHash, candidate);
+            return probationVictim;
+        }
+        return candidate;
+    }
+
+    private long size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    private static ObjectMetadata first(LinkedHashMap<KeyHash, ObjectMetadata> segment) {
+        return segment.values().iterator().next();
+    }
+
+    private static ObjectMetadata pollFirst(LinkedHashMap<KeyHash, ObjectMetadata> segment) {
+        final Iterator<ObjectMetadata> iterator = segment.values().iterator();
+        final ObjectMetadata first = iterator.next();
+        iterator.remove();
+        return first;
+    }
+}
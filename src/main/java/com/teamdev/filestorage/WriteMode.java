@@ -0,0 +1,19 @@
+package com.teamdev.filestorage;
+
+/**
+ * Way of moving object bytes from source InputStream to disk.
+ *
+ * @author Alex Geta
+ */
+public enum WriteMode {
+    /**
+     * Buffered stream copy through heap byte array.
+     */
+    STREAM,
+    /**
+     * FileChannel based copy. FileInputStream source is transferred channel to channel,
+     * so its bytes don't pass through java heap. Any other source is still read into heap array
+     * by the channel adapter and then copied to pooled direct ByteBuffer.
+     */
+    CHANNEL
+}
@@ -0,0 +1,59 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Makes small random range reads into a set of large objects and prints reads per second
+ * with every read opening object file and with shared cached channels. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class ChannelCacheBenchmark {
+
+    private static final int OBJECTS_COUNT = 32;
+    private static final int OBJECT_SIZE = 8 * 1024 * 1024;
+    private static final int READ_SIZE = 4096;
+    private static final int READS_COUNT = 300000;
+
+    public static void main(String[] args) throws Exception {
+        final File rootFolder = Files.createTempDirectory("channel-cache-benchmark").toFile();
+        final FileStorageImpl writer = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024);
+        final byte[] object = new byte[OBJECT_SIZE];
+        new Random(1).nextBytes(object);
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            writer.saveFile("key" + i, new ByteArrayInputStream(object));
+        }
+        writer.checkpoint();
+        writer.close();
+
+        for (int round = 0; round < 2; round++) {
+            for (int channelsCount : new int[]{0, OBJECTS_COUNT / 2, OBJECTS_COUNT}) {
+                final FileStorageConfig config = new FileStorageConfig();
+                config.setMaxCachedChannelsCount(channelsCount);
+                final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024, config);
+                fileStorage.awaitRecovery();
+                run(fileStorage, channelsCount);
+                fileStorage.close();
+            }
+        }
+    }
+
+    private static void run(FileStorageImpl fileStorage, int channelsCount) throws Exception {
+        final Random random = new Random(2);
+        final long startTime = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < READS_COUNT; i++) {
+            final ByteBuffer range = fileStorage.readRange("key" + random.nextInt(OBJECTS_COUNT),
+                    random.nextInt(OBJECT_SIZE - READ_SIZE), READ_SIZE);
+            checksum += range.get(0);
+        }
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        final ChannelCache cache = fileStorage.getChannelCache();
+        System.out.println(String.format("%2d cached channels: %7d reads/s, %d evictions (checksum %d)", channelsCount,
+                READS_COUNT * 1000L / elapsedMillis, cache != null ? cache.getEvictionsCount() : 0, checksum));
+    }
+}
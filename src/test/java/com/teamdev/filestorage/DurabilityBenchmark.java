@@ -0,0 +1,68 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves objects from concurrent writers in every durability mode and prints saves per second.
+ * Packed objects show group commit of segments and metadata journal, objects in own files
+ * show the cost of syncing every file. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class DurabilityBenchmark {
+
+    private static final int SAVES_COUNT = 4000;
+
+    public static void main(String[] args) throws Exception {
+        for (int objectSize : new int[]{1024, 16 * 1024}) {
+            for (int writersCount : new int[]{1, 16, 64}) {
+                for (DurabilityMode durabilityMode : DurabilityMode.values()) {
+                    run(durabilityMode, writersCount, objectSize);
+                }
+            }
+        }
+    }
+
+    private static void run(DurabilityMode durabilityMode, int writersCount, int objectSize) throws Exception {
+        final File rootFolder = new File(System.getProperty("java.io.tmpdir"), "durability-benchmark-" + System.nanoTime());
+        if (!rootFolder.mkdirs()) throw new IllegalStateException("Can't create " + rootFolder);
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        config.setDurabilityMode(durabilityMode);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), Long.MAX_VALUE / 2, config);
+
+        final byte[] object = new byte[objectSize];
+        final AtomicInteger keys = new AtomicInteger();
+        final List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < writersCount; i++) {
+            writers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int key;
+                    while ((key = keys.getAndIncrement()) < SAVES_COUNT) {
+                        fileStorage.saveFile("key" + key, new ByteArrayInputStream(object));
+                    }
+                    return null;
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(writersCount);
+        final long startTime = System.nanoTime();
+        executor.invokeAll(writers);
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        executor.shutdown();
+
+        final GroupCommit groupCommit = fileStorage.getGroupCommit();
+        System.out.println(String.format("%5d bytes, %2d writers, %-10s %7d saves/s%s", objectSize, writersCount,
+                durabilityMode, SAVES_COUNT * 1000L / elapsedMillis, groupCommit == null ? ""
+                        : String.format(", %.1f saves per sync", (double) groupCommit.getCommitsCount()
+                        / Math.max(1, groupCommit.getBatchesCount()))));
+    }
+}
@@ -0,0 +1,108 @@
+package com.teamdev.filestorage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays synthetic request traces against eviction policies and prints hit ratios.
+ * Requested object is read when stored, otherwise it is saved and storage is cleaned down to capacity.
+ * Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class EvictionPolicyTraceBenchmark {
+
+    private static final int KEYS_COUNT = 100000;
+    private static final int REQUESTS_COUNT = 2000000;
+    private static final int MIN_SIZE = 1024;
+    private static final int MAX_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) {
+        final long[] sizes = createSizes(new Random(1));
+        long totalBytes = 0;
+        for (long size : sizes) totalBytes += size;
+
+        for (double skew : new double[]{0.8, 1.0}) {
+            for (int capacityPercent : new int[]{1, 5, 20}) {
+                final int[] trace = createTrace(skew, new Random(2));
+                final long capacity = totalBytes * capacityPercent / 100;
+                System.out.println(String.format("zipf %.1f, capacity %d%%", skew, capacityPercent));
+                for (EvictionPolicy evictionPolicy : new EvictionPolicy[]{new FifoEvictionPolicy(),
+                        new LruEvictionPolicy(), new TinyLfuEvictionPolicy(), new GreedyDualSizeEvictionPolicy()}) {
+                    replay(evictionPolicy, trace, sizes, capacity);
+                }
+            }
+        }
+    }
+
+    private static void replay(EvictionPolicy evictionPolicy, int[] trace, long[] sizes, long capacity) {
+        final Map<Integer, ObjectMetadata> stored = new HashMap<Integer, ObjectMetadata>();
+        long usedBytes = 0;
+        long hits = 0;
+        long hitBytes = 0;
+        long requestedBytes = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < trace.length; i++) {
+            final int key = trace[i];
+            requestedBytes += sizes[key];
+            final ObjectMetadata metadata = stored.get(key);
+            if (metadata != null) {
+                hits++;
+                hitBytes += metadata.size;
+                evictionPolicy.onAccess(metadata);
+                continue;
+            }
+            final ObjectMetadata saved = new ObjectMetadata(new KeyHash(key, key), sizes[key], i, 0, i);
+            stored.put(key, saved);
+            evictionPolicy.onAdd(saved);
+            usedBytes += saved.size;
+            if (usedBytes > capacity) {
+                final List<ObjectMetadata> victims = evictionPolicy.pollVictims(usedBytes - capacity);
+                for (ObjectMetadata victim : victims) {
+                    stored.remove((int) victim.keyHash.low);
+                    usedBytes -= victim.size;
+                }
+            }
+        }
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format("  %-30s hit ratio %5.1f%%, byte hit ratio %5.1f%%, %d ms",
+                evictionPolicy.getClass().getSimpleName(), 100.0 * hits / trace.length,
+                100.0 * hitBytes / requestedBytes, elapsedMillis));
+    }
+
+    /**
+     * Sizes are log-uniform between 1 KB and 1 MB, independent of popularity.
+     */
+    private static long[] createSizes(Random random) {
+        final long[] sizes = new long[KEYS_COUNT];
+        final double range = Math.log(MAX_SIZE / MIN_SIZE);
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = (long) (MIN_SIZE * Math.exp(random.nextDouble() * range));
+        }
+        return sizes;
+    }
+
+    private static int[] createTrace(double skew, Random random) {
+        final double[] cumulative = new double[KEYS_COUNT];
+        double sum = 0;
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        final int[] trace = new int[REQUESTS_COUNT];
+        for (int i = 0; i < trace.length; i++) {
+            final double point = random.nextDouble() * sum;
+            int low = 0;
+            int high = KEYS_COUNT - 1;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (cumulative[middle] < point) low = middle + 1;
+                else high = middle;
+            }
+            trace[i] = low;
+        }
+        return trace;
+    }
+}
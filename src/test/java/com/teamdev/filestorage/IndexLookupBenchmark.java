@@ -0,0 +1,56 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+
+/**
+ * Reads keys which were never stored and prints misses per second answered by checking object file existence
+ * and by the in-memory index. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class IndexLookupBenchmark {
+
+    private static final int KEYS_COUNT = 20000;
+    private static final int MISSES_COUNT = 500000;
+
+    public static void main(String[] args) throws Exception {
+        final File rootFolder = Files.createTempDirectory("index-lookup-benchmark").toFile();
+        final FileStorageImpl writer = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            writer.saveFile("key" + i, new ByteArrayInputStream(new byte[16]));
+        }
+        writer.checkpoint();
+        writer.close();
+
+        for (int round = 0; round < 2; round++) {
+            for (boolean isIndexLookup : new boolean[]{false, true}) {
+                final FileStorageConfig config = new FileStorageConfig();
+                config.setIndexLookup(isIndexLookup);
+                final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024, config);
+                fileStorage.awaitRecovery();
+                run(fileStorage, isIndexLookup);
+                fileStorage.close();
+            }
+        }
+    }
+
+    private static void run(FileStorageImpl fileStorage, boolean isIndexLookup) {
+        long missesCount = 0;
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < MISSES_COUNT; i++) {
+            try {
+                fileStorage.readFile("missing" + i).close();
+            } catch (FileNotFoundException e) {
+                missesCount++;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        System.out.println(String.format("%-12s %8d misses/s (%d misses)", isIndexLookup ? "index" : "file check",
+                missesCount * 1000 / elapsedMillis, missesCount));
+    }
+}
@@ -0,0 +1,52 @@
+package com.teamdev.filestorage;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares key hashers over short and long keys with JMH.
+ * Compiled only with jmh profile, run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyHasherBenchmark {
+
+    @Param({"md5", "murmur3_128"})
+    public String hasher;
+
+    @Param({"8", "64", "512"})
+    public int keyLength;
+
+    private KeyHasher keyHasher;
+    private byte[] key;
+    private final byte[] hash = new byte[KeyHasher.HASH_LENGTH];
+
+    @Setup
+    public void setUp() {
+        keyHasher = Md5KeyHasher.NAME.equals(hasher) ? new Md5KeyHasher() : new Murmur3KeyHasher();
+        final StringBuilder keyBuilder = new StringBuilder();
+        while (keyBuilder.length() < keyLength) keyBuilder.append("fileKey").append(keyBuilder.length());
+        key = keyBuilder.substring(0, keyLength).getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public byte[] hash() {
+        keyHasher.hash(key, key.length, hash);
+        return hash;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(KeyHasherBenchmark.class.getSimpleName()).build()).run();
+    }
+}
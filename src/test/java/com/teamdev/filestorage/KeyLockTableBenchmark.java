@@ -0,0 +1,63 @@
+package com.teamdev.filestorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Takes write locks of random keys from many threads and prints throughput and share of contended acquisitions
+ * for several stripes counts, one stripe being a global lock. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class KeyLockTableBenchmark {
+
+    private static final int OPERATIONS_COUNT = 2000000;
+    private static final int KEYS_COUNT = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        for (int threadsCount : new int[]{1, 16, 256}) {
+            for (int stripesCount : new int[]{1, 1024, 16384}) {
+                run(threadsCount, stripesCount);
+            }
+        }
+    }
+
+    private static void run(int threadsCount, int stripesCount) throws Exception {
+        final KeyLockTable keyLocks = new KeyLockTable(stripesCount);
+        final List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (int thread = 0; thread < threadsCount; thread++) {
+            final Random random = new Random(thread);
+            final KeyHash[] keys = new KeyHash[1024];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new KeyHash(random.nextLong(), random.nextInt(KEYS_COUNT) * 0x9E3779B97F4A7C15L);
+            }
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < OPERATIONS_COUNT / threadsCount; i++) {
+                        final KeyHash keyHash = keys[i & (keys.length - 1)];
+                        keyLocks.lockWrite(keyHash);
+                        try {
+                            Thread.yield();
+                        } finally {
+                            keyLocks.unlockWrite(keyHash);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        final long startTime = System.nanoTime();
+        executor.invokeAll(workers);
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        executor.shutdown();
+        System.out.println(String.format("%3d threads, %5d stripes: %8d locks/s, %5.2f%% contended",
+                threadsCount, stripesCount, keyLocks.getAcquisitionsCount() * 1000 / elapsedMillis,
+                100.0 * keyLocks.getContendedCount() / keyLocks.getAcquisitionsCount()));
+    }
+}
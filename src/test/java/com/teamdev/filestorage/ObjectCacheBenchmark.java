@@ -0,0 +1,87 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Reads small objects picked by Zipf distribution and prints reads per second and hit ratio
+ * without object cache and with caches holding different shares of objects. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class ObjectCacheBenchmark {
+
+    private static final int KEYS_COUNT = 20000;
+    private static final int OBJECT_SIZE = 4 * 1024;
+    private static final int READS_COUNT = 300000;
+    private static final double SKEW = 0.9;
+
+    public static void main(String[] args) throws Exception {
+        final File rootFolder = Files.createTempDirectory("object-cache-benchmark").toFile();
+        final Random random = new Random(1);
+        final FileStorageImpl writer = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            final byte[] object = new byte[OBJECT_SIZE];
+            random.nextBytes(object);
+            writer.saveFile("key" + i, new ByteArrayInputStream(object));
+        }
+        writer.checkpoint();
+        writer.close();
+        final int[] trace = createTrace(random);
+
+        for (int round = 0; round < 2; round++) {
+            for (int cachePercent : new int[]{0, 5, 20}) {
+                final FileStorageConfig config = new FileStorageConfig();
+                config.setObjectCache((long) KEYS_COUNT * OBJECT_SIZE * cachePercent / 100, OBJECT_SIZE);
+                final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024, config);
+                fileStorage.awaitRecovery();
+                run(fileStorage, trace, cachePercent);
+                fileStorage.close();
+            }
+        }
+    }
+
+    private static void run(FileStorageImpl fileStorage, int[] trace, int cachePercent) throws Exception {
+        final byte[] buffer = new byte[OBJECT_SIZE];
+        final long startTime = System.nanoTime();
+        for (int key : trace) {
+            final InputStream inputStream = fileStorage.readFile("key" + key);
+            try {
+                int read = 0;
+                while (read < OBJECT_SIZE) read += inputStream.read(buffer, read, OBJECT_SIZE - read);
+            } finally {
+                inputStream.close();
+            }
+        }
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        final ObjectCache cache = fileStorage.getObjectCache();
+        System.out.println(String.format("cache %2d%% of objects: %7d reads/s, hit ratio %.3f, %d evictions, %d rejections",
+                cachePercent, trace.length * 1000L / elapsedMillis, cache != null ? cache.getHitRatio() : 0.0,
+                cache != null ? cache.getEvictionsCount() : 0, cache != null ? cache.getRejectionsCount() : 0));
+    }
+
+    private static int[] createTrace(Random random) {
+        final double[] cumulative = new double[KEYS_COUNT];
+        double sum = 0;
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            sum += 1 / Math.pow(i + 1, SKEW);
+            cumulative[i] = sum;
+        }
+        final int[] trace = new int[READS_COUNT];
+        for (int i = 0; i < trace.length; i++) {
+            final double point = random.nextDouble() * sum;
+            int low = 0;
+            int high = KEYS_COUNT - 1;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (cumulative[middle] < point) low = middle + 1;
+                else high = middle;
+            }
+            trace[i] = low;
+        }
+        return trace;
+    }
+}
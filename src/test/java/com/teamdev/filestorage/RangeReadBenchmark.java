@@ -0,0 +1,93 @@
+package com.teamdev.filestorage;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Makes small random reads into one big object and prints reads per second served from memory mapping,
+ * by positional reads of object file and by skipping through object stream. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class RangeReadBenchmark {
+
+    private static final long OBJECT_SIZE = 512L * 1024 * 1024;
+    private static final int READ_SIZE = 4096;
+    private static final int READS_COUNT = 200000;
+    private static final int STREAM_READS_COUNT = 20000;
+
+    public static void main(String[] args) throws Exception {
+        final File rootFolder = Files.createTempDirectory("range-read-benchmark").toFile();
+        final FileStorageConfig mappedConfig = new FileStorageConfig();
+        mappedConfig.setMappedReads(64 * 1024 * 1024, 16);
+        final FileStorageImpl writer = new FileStorageImpl(rootFolder.getPath(), OBJECT_SIZE * 2);
+        writer.saveFile("object", new InputStream() {
+            private long position;
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, OBJECT_SIZE - position);
+            }
+
+            @Override
+            public int read() {
+                return position < OBJECT_SIZE ? (int) (position++ & 0xFF) : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (position >= OBJECT_SIZE) return -1;
+                final int count = (int) Math.min(length, OBJECT_SIZE - position);
+                for (int i = 0; i < count; i++) bytes[offset + i] = (byte) (position + i);
+                position += count;
+                return count;
+            }
+        });
+        writer.checkpoint();
+        writer.close();
+
+        for (int round = 0; round < 2; round++) {
+            final FileStorageImpl mappedStorage = new FileStorageImpl(rootFolder.getPath(), OBJECT_SIZE * 2, mappedConfig);
+            mappedStorage.awaitRecovery();
+            run("mapped", mappedStorage, READS_COUNT, false);
+            mappedStorage.close();
+            final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), OBJECT_SIZE * 2);
+            fileStorage.awaitRecovery();
+            run("positional", fileStorage, READS_COUNT, false);
+            run("stream skip", fileStorage, STREAM_READS_COUNT, true);
+            if (round == 1) fileStorage.deleteFile("object");
+            fileStorage.close();
+        }
+    }
+
+    private static void run(String name, FileStorageImpl fileStorage, int readsCount, boolean isStream) throws Exception {
+        final Random random = new Random(1);
+        final byte[] bytes = new byte[READ_SIZE];
+        long checksum = 0;
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < readsCount; i++) {
+            final long offset = (long) (random.nextDouble() * (OBJECT_SIZE - READ_SIZE));
+            if (isStream) {
+                final InputStream inputStream = fileStorage.readFile("object");
+                try {
+                    long skipped = 0;
+                    while (skipped < offset) skipped += inputStream.skip(offset - skipped);
+                    int read = 0;
+                    while (read < READ_SIZE) read += inputStream.read(bytes, read, READ_SIZE - read);
+                } finally {
+                    inputStream.close();
+                }
+            } else {
+                final ByteBuffer range = fileStorage.readRange("object", offset, READ_SIZE);
+                range.get(bytes);
+            }
+            checksum += bytes[0];
+        }
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        System.out.println(String.format("%-12s %8d reads/s (checksum %d)", name, readsCount * 1000L / elapsedMillis,
+                checksum));
+    }
+}
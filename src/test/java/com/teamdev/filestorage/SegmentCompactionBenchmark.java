@@ -0,0 +1,80 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Overwrites random keys of packed storage and prints write amplification of segment compaction
+ * (bytes written to segments per saved byte) and space amplification (segments size per live byte)
+ * for several liveness thresholds. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class SegmentCompactionBenchmark {
+
+    private static final int KEYS_COUNT = 20000;
+    private static final int UPDATES_COUNT = 200000;
+    private static final int OBJECT_SIZE = 1024;
+    private static final int SAMPLES_INTERVAL = 1000;
+
+    public static void main(String[] args) throws Exception {
+        for (double threshold : new double[]{0.2, 0.5, 0.8}) {
+            run(threshold);
+        }
+    }
+
+    private static void run(double threshold) throws Exception {
+        final File rootFolder = new File(System.getProperty("java.io.tmpdir"), "compaction-benchmark-" + System.nanoTime());
+        if (!rootFolder.mkdirs()) throw new IllegalStateException("Can't create " + rootFolder);
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        config.setSegmentSizeBytes(1024 * 1024);
+        config.setCompactionLivenessThreshold(threshold);
+        config.setCompactionIoShare(1);
+        config.setCheckpointIntervalMillis(0);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), Long.MAX_VALUE / 2, config);
+
+        final byte[] object = new byte[OBJECT_SIZE];
+        final Random random = new Random(1);
+        final long recordSize = SegmentStore.HEADER_SIZE + OBJECT_SIZE + SegmentStore.TRAILER_SIZE;
+        long userBytes = 0;
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(object));
+            userBytes += recordSize;
+        }
+        final long startTime = System.nanoTime();
+        double spaceAmplification = 0;
+        double maxSpaceAmplification = 0;
+        int samples = 0;
+        for (int i = 0; i < UPDATES_COUNT; i++) {
+            final String key = "key" + random.nextInt(KEYS_COUNT);
+            fileStorage.deleteFile(key);
+            fileStorage.saveFile(key, new ByteArrayInputStream(object));
+            userBytes += recordSize;
+            if (i % SAMPLES_INTERVAL == 0) {
+                final double sample = (double) getSegmentsBytes(rootFolder) / (KEYS_COUNT * recordSize);
+                spaceAmplification += sample;
+                maxSpaceAmplification = Math.max(maxSpaceAmplification, sample);
+                samples++;
+            }
+        }
+        final long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+        final SegmentCompactor compactor = fileStorage.getSegmentCompactor();
+        System.out.println(String.format("threshold %.1f: write amplification %.2f, space amplification %.2f avg %.2f max, "
+                        + "%d segments compacted, %d updates/s", threshold,
+                (double) (userBytes + compactor.getRelocatedBytes()) / userBytes,
+                spaceAmplification / samples, maxSpaceAmplification,
+                compactor.getCompactedSegmentsCount(), UPDATES_COUNT * 1000L / Math.max(1, elapsedMillis)));
+    }
+
+    private static long getSegmentsBytes(File rootFolder) {
+        long bytes = 0;
+        final File[] segments = new File(rootFolder, SegmentStore.FOLDER_NAME).listFiles();
+        if (segments == null) return 0;
+        for (File segment : segments) {
+            bytes += segment.length();
+        }
+        return bytes;
+    }
+}
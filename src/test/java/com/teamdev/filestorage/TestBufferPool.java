@@ -0,0 +1,92 @@
+package com.teamdev.filestorage;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestBufferPool {
+
+    @Test
+    public void testSizeClasses() {
+        final BufferPool bufferPool = new BufferPool(false, 1024*1024);
+        assertEquals(4096, bufferPool.acquire(1).capacity());
+        assertEquals(16384, bufferPool.acquire(1024*5).capacity());
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, bufferPool.acquire(0).capacity());
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, bufferPool.acquire(Long.MAX_VALUE).capacity());
+        assertEquals(4, bufferPool.getOutstanding());
+    }
+
+    @Test
+    public void testReuse() {
+        final BufferPool bufferPool = new BufferPool(true, 1024*1024);
+        final ByteBuffer first = bufferPool.acquire(1024*5);
+        bufferPool.release(first);
+        final ByteBuffer second = bufferPool.acquire(1024*10);
+        assertSame(first, second);
+        assertTrue(second.isDirect());
+        assertEquals(1, bufferPool.getHits());
+        assertEquals(1, bufferPool.getMisses());
+        assertEquals(1, bufferPool.getOutstanding());
+    }
+
+    @Test
+    public void testForeignBuffersAreIgnored() {
+        final BufferPool bufferPool = new BufferPool(false, 1024*1024);
+        bufferPool.acquire(1);
+        bufferPool.release(ByteBuffer.allocate(1000));
+        bufferPool.release(ByteBuffer.allocateDirect(4096));
+        assertEquals(1, bufferPool.getOutstanding());
+        assertEquals(0, bufferPool.getPooledBytes());
+    }
+
+    @Test
+    public void testPoolLimit() {
+        final BufferPool bufferPool = new BufferPool(false, 4096);
+        final ByteBuffer first = bufferPool.acquire(1);
+        final ByteBuffer second = bufferPool.acquire(1);
+        final ByteBuffer third = bufferPool.acquire(1);
+        bufferPool.release(first);
+        bufferPool.release(second);
+        bufferPool.release(third);
+        assertEquals(4096, bufferPool.getPooledBytes());
+        assertEquals(0, bufferPool.getOutstanding());
+    }
+
+    @Test
+    public void testLocalBuffersAreCounted() {
+        final BufferPool bufferPool = new BufferPool(false, 4096);
+        final ByteBuffer small = bufferPool.acquire(1);
+        final ByteBuffer big = bufferPool.acquire(0);
+        bufferPool.release(big);
+        assertEquals(0, bufferPool.getPooledBytes());
+        bufferPool.release(small);
+        assertEquals(4096, bufferPool.getPooledBytes());
+        assertSame(small, bufferPool.acquire(1));
+        assertEquals(0, bufferPool.getPooledBytes());
+    }
+
+    @Test
+    public void testBuffersOfTerminatedThreadAreReclaimed() throws Exception {
+        final BufferPool bufferPool = new BufferPool(false, 4096);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                bufferPool.release(bufferPool.acquire(1));
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(4096, bufferPool.getPooledBytes());
+        final ByteBuffer buffer = bufferPool.acquire(1);
+        bufferPool.release(buffer);
+        assertEquals(4096, bufferPool.getPooledBytes());
+        assertSame(buffer, bufferPool.acquire(1));
+    }
+}
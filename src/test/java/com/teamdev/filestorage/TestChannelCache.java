@@ -0,0 +1,147 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestChannelCache {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testChannelIsShared() throws Exception {
+        final ChannelCache cache = new ChannelCache(4);
+        final ObjectMetadata metadata = createMetadata(1);
+        final File file = createFile(1);
+        final ChannelCache.Handle first = cache.acquire(metadata, file);
+        final ChannelCache.Handle second = cache.acquire(metadata, file);
+        assertSame(first, second);
+        cache.release(first);
+        cache.release(second);
+        assertTrue(first.channel.isOpen());
+        assertEquals(1, cache.getHitsCount());
+        assertEquals(1, cache.getMissesCount());
+
+        final ChannelCache.Handle replaced = cache.acquire(createMetadata(1), file);
+        assertNotSame(first, replaced);
+        assertFalse(first.channel.isOpen());
+        cache.release(replaced);
+    }
+
+    @Test
+    public void testIdleChannelsAreEvicted() throws Exception {
+        final ChannelCache cache = new ChannelCache(2);
+        final ChannelCache.Handle[] handles = new ChannelCache.Handle[3];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = cache.acquire(createMetadata(i), createFile(i));
+            cache.release(handles[i]);
+        }
+        assertFalse(handles[0].channel.isOpen());
+        assertTrue(handles[1].channel.isOpen());
+        assertTrue(handles[2].channel.isOpen());
+        assertEquals(2, cache.getCachedChannelsCount());
+        assertEquals(1, cache.getEvictionsCount());
+    }
+
+    @Test
+    public void testReferencedChannelIsClosedOnRelease() throws Exception {
+        final ChannelCache cache = new ChannelCache(1);
+        final ObjectMetadata metadata = createMetadata(1);
+        final ChannelCache.Handle handle = cache.acquire(metadata, createFile(1));
+        final ChannelCache.Handle bypass = cache.acquire(createMetadata(2), createFile(2));
+        assertFalse(bypass.isCached);
+        assertEquals(1, cache.getBypassesCount());
+        cache.release(bypass);
+        assertFalse(bypass.channel.isOpen());
+
+        cache.invalidate(metadata.keyHash);
+        assertTrue(handle.channel.isOpen());
+        assertEquals(0, cache.getCachedChannelsCount());
+        cache.release(handle);
+        assertFalse(handle.channel.isOpen());
+    }
+
+    @Test
+    public void testClosedCacheClosesChannels() throws Exception {
+        final ChannelCache cache = new ChannelCache(4);
+        final ChannelCache.Handle idle = cache.acquire(createMetadata(1), createFile(1));
+        cache.release(idle);
+        final ChannelCache.Handle used = cache.acquire(createMetadata(2), createFile(2));
+        cache.close();
+        assertFalse(idle.channel.isOpen());
+        assertTrue(used.channel.isOpen());
+        assertEquals(0, cache.getCachedChannelsCount());
+        cache.release(used);
+        assertFalse(used.channel.isOpen());
+    }
+
+    @Test
+    public void testStorageReads() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setMaxCachedChannelsCount(16);
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(),
+                16 * 1024 * 1024, config);
+        fileStorage.saveFile("key", new ByteArrayInputStream(createObject(10000, 1)));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(createObject(10000, 1)[5000], fileStorage.readRange("key", 5000, 1).get());
+        }
+        final InputStream inputStream = fileStorage.readFile("key");
+        final SeekableByteChannel channel = fileStorage.openFile("key");
+        assertEquals(1, fileStorage.getChannelCache().getMissesCount());
+        assertEquals(4, fileStorage.getChannelCache().getHitsCount());
+
+        assertTrue(fileStorage.deleteFile("key"));
+        fileStorage.saveFile("key", new ByteArrayInputStream(createObject(20000, 2)));
+        assertEquals(createObject(20000, 2)[15000], fileStorage.readRange("key", 15000, 1).get());
+
+        final byte[] bytes = new byte[10000];
+        int read = 0;
+        while (read < bytes.length) read += inputStream.read(bytes, read, bytes.length - read);
+        assertArrayEquals(createObject(10000, 1), bytes);
+        assertEquals(-1, inputStream.read());
+        inputStream.close();
+        channel.position(9999);
+        final ByteBuffer last = ByteBuffer.allocate(10);
+        assertEquals(1, channel.read(last));
+        channel.close();
+
+        assertTrue(fileStorage.deleteFile("key"));
+        try {
+            fileStorage.readRange("key", 0, 1);
+            fail("Deleted object is read");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertEquals(0, fileStorage.getChannelCache().getCachedChannelsCount());
+    }
+
+    private File createFile(int seed) throws Exception {
+        final File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), createObject(100, seed));
+        return file;
+    }
+
+    private static ObjectMetadata createMetadata(long key) {
+        return new ObjectMetadata(new KeyHash(key, key), 100, 0, 0, 0);
+    }
+
+    private static byte[] createObject(int size, int seed) {
+        final byte[] object = new byte[size];
+        for (int i = 0; i < size; i++) object[i] = (byte) (i * 31 + seed);
+        return object;
+    }
+}
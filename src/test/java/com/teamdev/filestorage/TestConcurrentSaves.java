@@ -0,0 +1,145 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestConcurrentSaves {
+
+    private static final int WRITERS_COUNT = 16;
+    private static final int KEYS_COUNT = 500;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCollidingSavesToFiles() throws Exception {
+        testCollidingSaves(new FileStorageConfig(), 2000);
+    }
+
+    @Test
+    public void testCollidingPackedAndFileSaves() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(1024);
+        testCollidingSaves(config, 2000);
+    }
+
+    /**
+     * Every writer saves every key, writers of the same key differ by object content and size.
+     */
+    private void testCollidingSaves(FileStorageConfig config, final int maxObjectSize) throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024, config);
+        final AtomicInteger savedCount = new AtomicInteger();
+        final AtomicInteger rejectedCount = new AtomicInteger();
+        final List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+        for (int writer = 0; writer < WRITERS_COUNT; writer++) {
+            final int writerIndex = writer;
+            writers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int key = 0; key < KEYS_COUNT; key++) {
+                        try {
+                            assertTrue(fileStorage.saveFile("key" + key,
+                                    new ByteArrayInputStream(createObject(writerIndex, maxObjectSize))));
+                            savedCount.incrementAndGet();
+                        } catch (FileAlreadyExistsException e) {
+                            rejectedCount.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(writers);
+
+        assertEquals(KEYS_COUNT, savedCount.get());
+        assertEquals(KEYS_COUNT * (WRITERS_COUNT - 1), rejectedCount.get());
+        assertEquals(KEYS_COUNT, fileStorage.getObjectsCount());
+        long storedBytes = 0;
+        for (int key = 0; key < KEYS_COUNT; key++) {
+            final byte[] object = read(fileStorage.readFile("key" + key));
+            assertEquals(object.length, createObject(object[0], maxObjectSize).length);
+            for (byte value : object) assertEquals(object[0], value);
+            storedBytes += object.length;
+        }
+        assertEquals(1024 * 1024 * 1024 - storedBytes, fileStorage.getFreeSpace());
+        assertNoTemporaryFiles(rootFolder);
+    }
+
+    @Test
+    public void testSavesRaceWithFolderPruning() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024);
+        final List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+        for (int writer = 0; writer < WRITERS_COUNT; writer++) {
+            final int writerIndex = writer;
+            writers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < KEYS_COUNT / 2; i++) {
+                        final String key = "key" + writerIndex + "-" + i;
+                        assertTrue(fileStorage.saveFile(key, new ByteArrayInputStream(new byte[100])));
+                        assertTrue(fileStorage.deleteFile(key));
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(writers);
+        assertEquals(0, fileStorage.getObjectsCount());
+        assertEquals(1024 * 1024 * 1024, fileStorage.getFreeSpace());
+    }
+
+    private static byte[] createObject(int writerIndex, int maxObjectSize) {
+        final byte[] object = new byte[1 + writerIndex * maxObjectSize / WRITERS_COUNT];
+        for (int i = 0; i < object.length; i++) object[i] = (byte) writerIndex;
+        return object;
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] read(InputStream inputStream) throws Exception {
+        try {
+            final byte[] buffer = new byte[4096];
+            final java.io.ByteArrayOutputStream outputStream = new java.io.ByteArrayOutputStream();
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) outputStream.write(buffer, 0, length);
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void assertNoTemporaryFiles(File folder) {
+        final File[] children = folder.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            assertFalse(child.getName().endsWith(PathEncoder.TEMP_EXT));
+            if (child.isDirectory()) assertNoTemporaryFiles(child);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestEvictionPolicies {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static ObjectMetadata object(long id, long size, long creationTime) {
+        return new ObjectMetadata(new KeyHash(0, id), size, creationTime, 0, 0);
+    }
+
+    @Test
+    public void testSameCreationTimeDoesNotCollide() {
+        final EvictionPolicy evictionPolicy = new FifoEvictionPolicy();
+        final ObjectMetadata newest = object(1, 10, 2000);
+        final ObjectMetadata first = object(2, 10, 1000);
+        final ObjectMetadata second = object(3, 10, 1000);
+        evictionPolicy.onAdd(newest);
+        evictionPolicy.onAdd(second);
+        evictionPolicy.onAdd(first);
+        evictionPolicy.onRemove(first);
+
+        final List<ObjectMetadata> victims = evictionPolicy.pollVictims(Long.MAX_VALUE);
+        assertEquals(2, victims.size());
+        assertSame(second, victims.get(0));
+        assertSame(newest, victims.get(1));
+        assertTrue(evictionPolicy.pollVictims(1).isEmpty());
+    }
+
+    @Test
+    public void testVictimsCoverRequestedBytes() {
+        for (EvictionPolicy evictionPolicy : createPolicies()) {
+            for (int i = 0; i < 10; i++) evictionPolicy.onAdd(object(i, 100, i));
+            assertEquals(3, evictionPolicy.pollVictims(250).size());
+            assertEquals(7, evictionPolicy.pollVictims(Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void testLruKeepsRecentlyRead() {
+        final EvictionPolicy evictionPolicy = new LruEvictionPolicy();
+        final ObjectMetadata hot = object(0, 10, 0);
+        evictionPolicy.onAdd(hot);
+        for (int i = 1; i < 10; i++) evictionPolicy.onAdd(object(i, 10, i));
+        evictionPolicy.onAccess(hot);
+
+        final List<ObjectMetadata> victims = evictionPolicy.pollVictims(Long.MAX_VALUE);
+        assertSame(hot, victims.get(victims.size() - 1));
+    }
+
+    @Test
+    public void testTinyLfuKeepsFrequentlyRead() {
+        final EvictionPolicy evictionPolicy = new TinyLfuEvictionPolicy();
+        final List<ObjectMetadata> hot = new ArrayList<ObjectMetadata>();
+        for (int i = 0; i < 100; i++) {
+            final ObjectMetadata metadata = object(i, 10, i);
+            evictionPolicy.onAdd(metadata);
+            if (i < 10) hot.add(metadata);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (ObjectMetadata metadata : hot) evictionPolicy.onAccess(metadata);
+        }
+        for (int i = 100; i < 200; i++) evictionPolicy.onAdd(object(i, 10, i));
+
+        final List<ObjectMetadata> victims = evictionPolicy.pollVictims(1500);
+        for (ObjectMetadata metadata : hot) assertFalse(victims.contains(metadata));
+    }
+
+    @Test
+    public void testGreedyDualSizeEvictsLargeFirst() {
+        final EvictionPolicy evictionPolicy = new GreedyDualSizeEvictionPolicy();
+        final ObjectMetadata large = object(0, 1000, 0);
+        evictionPolicy.onAdd(object(1, 10, 0));
+        evictionPolicy.onAdd(large);
+        evictionPolicy.onAdd(object(2, 10, 0));
+        assertSame(large, evictionPolicy.pollVictims(1).get(0));
+    }
+
+    @Test
+    public void testCleanUsesConfiguredPolicy() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setEvictionPolicy(new LruEvictionPolicy());
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(), 1024 * 1024, config);
+        for (int i = 0; i < 10; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        fileStorage.readFile("key0").close();
+
+        assertEquals(900, fileStorage.clean(900));
+        assertEquals(1, fileStorage.getObjectsCount());
+        fileStorage.readFile("key0").close();
+    }
+
+    private static List<EvictionPolicy> createPolicies() {
+        return Arrays.asList(new FifoEvictionPolicy(), new LruEvictionPolicy(),
+                new TinyLfuEvictionPolicy(), new GreedyDualSizeEvictionPolicy());
+    }
+
+    @Test
+    public void testCleanAfterRestartFromCheckpoint() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final long capacity = 1024*1024;
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), capacity);
+        for (int i = 0; i < 300; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        fileStorage.checkpoint();
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), capacity);
+        assertTrue(restartedStorage.getRecoveryReport().isFromCheckpoint());
+        assertEquals(5000, restartedStorage.clean(5000));
+        assertEquals(250, restartedStorage.getObjectsCount());
+        assertEquals(25000, restartedStorage.clean(capacity));
+        assertEquals(capacity, restartedStorage.getFreeSpace());
+    }
+}
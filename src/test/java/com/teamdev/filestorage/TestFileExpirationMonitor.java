@@ -0,0 +1,184 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestFileExpirationMonitor {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testDeadlinesAcrossWheelLevels() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        final long[] delays = {5, 100, 511, 700, 1500};
+        for (long delay : delays) {
+            fileStorage.saveFile("key" + delay, new ByteArrayInputStream(new byte[16]), delay);
+        }
+        Thread.sleep(1600);
+        for (long delay : delays) {
+            assertFalse("key" + delay, pathEncoder.getFile("key" + delay).exists());
+        }
+        assertEquals(1024*1024, fileStorage.getFreeSpace());
+    }
+
+    @Test
+    public void testDeletedFileIsNotExpired() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]), 100);
+        fileStorage.deleteFile("key");
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]));
+        Thread.sleep(300);
+        fileStorage.readFile("key").close();
+    }
+
+    @Test
+    public void testFileSavedAgainWhileExpiringIsKept() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        final KeyHash keyHash = new PathEncoder(rootFolder, new Md5KeyHasher()).hash("key");
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]), 100);
+        /*monitoring thread waits for the key lock with the due deadline while the key is replaced*/
+        fileStorage.getKeyLocks().lockWrite(keyHash);
+        try {
+            Thread.sleep(300);
+            assertTrue(fileStorage.deleteFile("key"));
+            fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]));
+        } finally {
+            fileStorage.getKeyLocks().unlockWrite(keyHash);
+        }
+        Thread.sleep(200);
+        fileStorage.readFile("key").close();
+        fileStorage.close();
+    }
+
+    @Test
+    public void testEvictedFileIsNotExpired() throws Exception {
+        testEvictedObjectIsNotExpired(new FileStorageConfig());
+    }
+
+    @Test
+    public void testEvictedPackedObjectIsNotExpired() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(1024);
+        testEvictedObjectIsNotExpired(config);
+    }
+
+    private void testEvictedObjectIsNotExpired(FileStorageConfig config) throws Exception {
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(), 1024*1024, config);
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]), 300);
+        assertEquals(16, fileStorage.clean(Long.MAX_VALUE));
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[16]));
+        Thread.sleep(600);
+        fileStorage.readFile("key").close();
+    }
+
+    @Test
+    public void testManyExpirations() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024*10);
+        final int count = 2000;
+        for (int i = 0; i < count; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[16]), 100 + i % 400);
+        }
+        Thread.sleep(1500);
+        assertEquals(1024*1024*10, fileStorage.getFreeSpace());
+        final File[] folders = rootFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        assertEquals(0, folders.length);
+    }
+
+    @Test
+    public void testExpirationsAreRecorded() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        final long deadline = System.currentTimeMillis() + 60000;
+        fileStorage.saveFile("recorded", new ByteArrayInputStream(new byte[16]), 60000);
+        fileStorage.saveFile("removed", new ByteArrayInputStream(new byte[16]), 60000);
+        fileStorage.deleteFile("removed");
+
+        final Map<KeyHash, Long> deadlines = loadIndex(rootFolder);
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        assertEquals(1, deadlines.size());
+        assertTrue(deadlines.get(pathEncoder.hash("recorded")) >= deadline);
+    }
+
+    @Test
+    public void testRecordedExpirationsAreLoaded() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        fileStorage.saveFile("expired", new ByteArrayInputStream(new byte[16]));
+        fileStorage.saveFile("alive", new ByteArrayInputStream(new byte[16]));
+        fileStorage.close();
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+
+        final ExpirationIndex expirationIndex = new ExpirationIndex(rootFolder);
+        expirationIndex.open();
+        expirationIndex.put(pathEncoder.hash("expired"), System.currentTimeMillis() - 1000);
+        expirationIndex.put(pathEncoder.hash("alive"), System.currentTimeMillis() + 60000);
+        expirationIndex.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), 1024*1024);
+        Thread.sleep(300);
+        assertFalse(pathEncoder.getFile("expired").exists());
+        assertTrue(pathEncoder.getFile("alive").exists());
+        assertEquals(1, loadIndex(rootFolder).size());
+        restartedStorage.deleteFile("alive");
+    }
+
+    @Test
+    public void testIndexCompaction() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final ExpirationIndex expirationIndex = new ExpirationIndex(rootFolder);
+        expirationIndex.open();
+        final Map<KeyHash, Long> liveDeadlines = new HashMap<KeyHash, Long>();
+        for (int i = 0; i < 100; i++) {
+            final KeyHash keyHash = new KeyHash(i, -i);
+            expirationIndex.put(keyHash, 1000 + i);
+            if (i % 10 == 0) {
+                liveDeadlines.put(keyHash, 1000L + i);
+            } else expirationIndex.remove(keyHash);
+        }
+        expirationIndex.sync();
+        expirationIndex.compact(liveDeadlines);
+        expirationIndex.put(new KeyHash(7, 7), 7);
+        expirationIndex.sync();
+        expirationIndex.close();
+        expirationIndex.sync();
+
+        liveDeadlines.put(new KeyHash(7, 7), 7L);
+        assertEquals(liveDeadlines, loadIndex(rootFolder));
+        assertEquals(11 * 24, new File(rootFolder, ExpirationIndex.FILE_NAME).length());
+    }
+
+    private static Map<KeyHash, Long> loadIndex(File rootFolder) throws IOException {
+        final ExpirationIndex expirationIndex = new ExpirationIndex(rootFolder);
+        final Map<KeyHash, Long> deadlines = new HashMap<KeyHash, Long>();
+        expirationIndex.open();
+        expirationIndex.load(deadlines);
+        expirationIndex.close();
+        return deadlines;
+    }
+}
@@ -16,7 +16,7 @@ import static org.junit.Assert.assertTrue;
  */
 public class TestFileStorageMethods {
 
-    private final String rootPath = "src\\rootFolder";
+    private final String rootPath = "src" + File.separator + "rootFolder";
     private FileStorage fileStorage;
 
     @Before
@@ -34,7 +34,7 @@ public class TestFileStorageMethods {
         final byte [] savedBytes = new byte[1024*5];
         final InputStream savedInputStream = new ByteArrayInputStream(savedBytes);
         final File expectedFile =
-                new File("src\\rootFolder\\d81\\42c\\bd7\\8c688ae7b47e150472c50c8.dat");
+                new File(rootPath, "d81/42c/bd7/8c688ae7b47e150472c50c8.dat");
         final boolean isSaved = fileStorage.saveFile(key, savedInputStream);
         savedInputStream.close();
         assertTrue(expectedFile.exists() &&
@@ -67,7 +67,7 @@ public class TestFileStorageMethods {
     public void testDeleteFile() throws IOException {
         fileStorage = new FileStorageImpl(rootPath, 1024*10);
         final String key = "someKey";
-        final File deletedFile = new File("src\\rootFolder\\d81\\42c\\bd7\\8c688ae7b47e150472c50c8.dat");
+        final File deletedFile = new File(rootPath, "d81/42c/bd7/8c688ae7b47e150472c50c8.dat");
         final boolean isDeleted = fileStorage.deleteFile(key);
         final boolean isExists = deletedFile.exists();
         assertTrue(!isExists && isDeleted);
@@ -97,8 +97,27 @@ public class TestFileStorageMethods {
         savedInputStream.close();
     }
 
+    @Test
+    public void testChannelWriteMode() throws IOException {
+        final FileStorageImpl channelStorage = new FileStorageImpl(rootPath, 1024*1024*4);
+        fileStorage = channelStorage;
+        channelStorage.setWriteMode(WriteMode.CHANNEL);
+        final String key = "channelKey";
+        final byte [] savedBytes = new byte[1024*1024*3];
+        for (int i = 0; i < savedBytes.length; i++) savedBytes[i] = (byte) i;
+        final InputStream savedInputStream = new ByteArrayInputStream(savedBytes);
+        final boolean isSaved = channelStorage.saveFile(key, savedInputStream);
+        savedInputStream.close();
+        final InputStream actualInputStream = channelStorage.readFile(key);
+        final boolean streamsEquals = IOUtils.contentEquals(new ByteArrayInputStream(savedBytes), actualInputStream);
+        actualInputStream.close();
+        final boolean isDeleted = channelStorage.deleteFile(key);
+        assertTrue(isSaved && streamsEquals && isDeleted);
+    }
+
     @After
     public void tearDown() throws Exception {
+        if (fileStorage != null) fileStorage.close();
         if(new File(rootPath).delete()){
             assertTrue(true);
         }
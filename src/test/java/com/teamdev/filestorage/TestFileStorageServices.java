@@ -16,7 +16,7 @@ import static org.junit.Assert.assertTrue;
  */
 public class TestFileStorageServices {
 
-    private final String rootPath = "src\\rootFolder";
+    private final String rootPath = "src" + File.separator + "rootFolder";
     private FileStorage fileStorage;
 
     @Before
@@ -33,7 +33,7 @@ public class TestFileStorageServices {
         final String key = "someKey1";
         final byte [] savedBytes = new byte[1024*5];
         final InputStream savedInputStream = new ByteArrayInputStream(savedBytes);
-        final File savedFile = new File("src\\rootFolder\\5ef\\242\\e11\\85ad0ea23f1569452b4f6de.dat");
+        final File savedFile = new File(rootPath, "5ef/242/e11/85ad0ea23f1569452b4f6de.dat");
         final int expirationTime = 500;
         final boolean isSaved = fileStorage.saveFile(key, savedInputStream, expirationTime);
         assertTrue(isSaved && savedFile.exists());
@@ -64,6 +64,7 @@ public class TestFileStorageServices {
 
     @After
     public void tearDown() throws Exception {
+        if (fileStorage != null) fileStorage.close();
         if(new File(rootPath).delete()){
             assertTrue(true);
         }
@@ -0,0 +1,194 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestGroupCommit {
+
+    private static final int WRITERS_COUNT = 16;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static List<Future<Boolean>> runConcurrently(int count, final Callable<Boolean> task) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(WRITERS_COUNT);
+        try {
+            final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+            for (int i = 0; i < count; i++) tasks.add(task);
+            return executor.invokeAll(tasks);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentCommitsShareSync() throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(Collections.<GroupCommit.Syncable>singletonList(
+                new GroupCommit.Syncable() {
+                    @Override
+                    public void sync() throws IOException {
+                        syncs.incrementAndGet();
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }), 1, 1000);
+        for (Future<Boolean> result : runConcurrently(WRITERS_COUNT * 10, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                groupCommit.commit();
+                return true;
+            }
+        })) {
+            assertTrue(result.get());
+        }
+        assertEquals(WRITERS_COUNT * 10, groupCommit.getCommitsCount());
+        assertEquals(syncs.get(), groupCommit.getBatchesCount());
+        assertTrue(syncs.get() < WRITERS_COUNT * 10 / 2);
+    }
+
+    @Test
+    public void testFailedSyncFailsCommit() throws Exception {
+        final GroupCommit groupCommit = new GroupCommit(Collections.<GroupCommit.Syncable>singletonList(
+                new GroupCommit.Syncable() {
+                    @Override
+                    public void sync() throws IOException {
+                        throw new IOException("Disk failure");
+                    }
+                }), 0, 1);
+        try {
+            groupCommit.commit();
+            fail("Commit must fail");
+        } catch (IOException e) {
+            assertEquals("Disk failure", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testUnexpectedSyncFailureFailsCommit() throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(Collections.<GroupCommit.Syncable>singletonList(
+                new GroupCommit.Syncable() {
+                    @Override
+                    public void sync() throws IOException {
+                        final int sync = syncs.incrementAndGet();
+                        if (sync == 1) throw new IllegalStateException("Unexpected state");
+                        if (sync == 2) throw new Error("Unexpected error");
+                    }
+                }), 0, 1);
+        for (String message : new String[]{"Unexpected state", "Unexpected error"}) {
+            try {
+                groupCommit.commit();
+                fail("Commit must fail");
+            } catch (IOException e) {
+                assertEquals(message, e.getCause().getMessage());
+            }
+        }
+        groupCommit.commit();
+        assertEquals(3, groupCommit.getBatchesCount());
+    }
+
+    @Test
+    public void testClosedGroupCommitRejectsCommits() throws Exception {
+        final AtomicInteger syncs = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(Collections.<GroupCommit.Syncable>singletonList(
+                new GroupCommit.Syncable() {
+                    @Override
+                    public void sync() throws IOException {
+                        syncs.incrementAndGet();
+                    }
+                }), 0, 1);
+        groupCommit.commit();
+        groupCommit.close();
+        try {
+            groupCommit.commit();
+            fail("Commit must fail");
+        } catch (IOException e) {
+            assertEquals("Group commit is closed", e.getMessage());
+        }
+        assertEquals(1, syncs.get());
+    }
+
+    @Test
+    public void testUncommittedSaveIsRolledBack() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        config.setDurabilityMode(DurabilityMode.GROUP);
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(),
+                10 * 1024 * 1024, config);
+        final long freeSpace = fileStorage.getFreeSpace();
+        fileStorage.getGroupCommit().close();
+        assertFalse(fileStorage.saveFile("packed", new ByteArrayInputStream(new byte[100]), 60000));
+        assertFalse(fileStorage.saveFile("file", new ByteArrayInputStream(new byte[5000]), 60000));
+        assertEquals(0, fileStorage.getObjectsCount());
+        assertEquals(freeSpace, fileStorage.getFreeSpace());
+        for (String key : new String[]{"packed", "file"}) {
+            try {
+                fileStorage.readFile(key);
+                fail("Uncommitted object must not be visible");
+            } catch (FileNotFoundException e) {
+                /*expected*/
+            }
+        }
+        fileStorage.close();
+    }
+
+    @Test
+    public void testGroupDurabilityMode() throws Exception {
+        testDurabilityMode(DurabilityMode.GROUP);
+    }
+
+    @Test
+    public void testPerObjectDurabilityMode() throws Exception {
+        testDurabilityMode(DurabilityMode.PER_OBJECT);
+    }
+
+    private void testDurabilityMode(DurabilityMode durabilityMode) throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        config.setDurabilityMode(durabilityMode);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 10 * 1024 * 1024, config);
+        final AtomicInteger keys = new AtomicInteger();
+        for (Future<Boolean> result : runConcurrently(200, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                final int key = keys.getAndIncrement();
+                return fileStorage.saveFile("key" + key, new ByteArrayInputStream(new byte[key % 2 == 0 ? 100 : 5000]));
+            }
+        })) {
+            assertTrue(result.get());
+        }
+        if (durabilityMode == DurabilityMode.GROUP) {
+            assertEquals(200, fileStorage.getGroupCommit().getCommitsCount());
+            assertTrue(fileStorage.getGroupCommit().getBatchesCount() <= 200);
+        } else assertNull(fileStorage.getGroupCommit());
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), 10 * 1024 * 1024, config);
+        assertEquals(200, restartedStorage.getObjectsCount());
+        assertEquals(100 * 100 + 100 * 5000, restartedStorage.getRecoveryReport().getBytes());
+    }
+}
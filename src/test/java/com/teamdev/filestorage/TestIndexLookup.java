@@ -0,0 +1,85 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestIndexLookup {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMissesAreAnsweredByIndex() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(temporaryFolder.newFolder());
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[100]));
+        assertEquals(100, fileStorage.readFile("key").read(new byte[200]));
+        assertMissing(fileStorage, "missing");
+        assertEquals(4, fileStorage.getIndexedMissesCount());
+
+        assertTrue(fileStorage.deleteFile("key"));
+        assertMissing(fileStorage, "key");
+        assertEquals(8, fileStorage.getIndexedMissesCount());
+    }
+
+    @Test
+    public void testRestartedStorage() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = createStorage(rootFolder);
+        for (int i = 0; i < 10; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        fileStorage.checkpoint();
+        fileStorage.saveFile("journaled", new ByteArrayInputStream(new byte[100]));
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = createStorage(rootFolder);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100, restartedStorage.readRange("key" + i, 0, 1000).remaining());
+        }
+        assertEquals(100, restartedStorage.readRange("journaled", 0, 1000).remaining());
+        assertMissing(restartedStorage, "key10");
+    }
+
+    private static void assertMissing(FileStorageImpl fileStorage, String key) throws Exception {
+        try {
+            fileStorage.readFile(key);
+            fail("Missing object is read");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        try {
+            fileStorage.readRange(key, 0, 1);
+            fail("Missing object is read");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        try {
+            fileStorage.openFile(key);
+            fail("Missing object is opened");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        try {
+            fileStorage.deleteFile(key);
+            fail("Missing object is deleted");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static FileStorageImpl createStorage(File rootFolder) {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setIndexLookup(true);
+        return new FileStorageImpl(rootFolder.getPath(), 1024 * 1024, config);
+    }
+}
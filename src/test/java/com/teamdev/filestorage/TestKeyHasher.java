@@ -0,0 +1,67 @@
+package com.teamdev.filestorage;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestKeyHasher {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMd5() {
+        assertEquals(DigestUtils.md5Hex("someKey"), hashHex(new Md5KeyHasher(), "someKey"));
+    }
+
+    @Test
+    public void testMurmur3() {
+        final KeyHasher keyHasher = new Murmur3KeyHasher();
+        assertEquals("00000000000000000000000000000000", hashHex(keyHasher, ""));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a",
+                hashHex(keyHasher, "The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void testDescriptorRecordsHasher() throws IOException {
+        final File rootFolder = temporaryFolder.newFolder();
+        new FileStorageImpl(rootFolder.getPath(), 1024, new Murmur3KeyHasher());
+        assertTrue(new File(rootFolder, LayoutDescriptor.FILE_NAME).exists());
+        assertEquals(Murmur3KeyHasher.NAME, LayoutDescriptor.resolveHasher(rootFolder, null).getName());
+    }
+
+    @Test
+    public void testMd5IsDefault() throws IOException {
+        final File rootFolder = temporaryFolder.newFolder();
+        new FileStorageImpl(rootFolder.getPath(), 1024);
+        assertEquals(Md5KeyHasher.NAME, LayoutDescriptor.resolveHasher(rootFolder, null).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHasherMismatch() throws IOException {
+        final File rootFolder = temporaryFolder.newFolder();
+        new FileStorageImpl(rootFolder.getPath(), 1024);
+        new FileStorageImpl(rootFolder.getPath(), 1024, new Murmur3KeyHasher());
+    }
+
+    private static String hashHex(KeyHasher keyHasher, String key) {
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final byte[] hash = new byte[KeyHasher.HASH_LENGTH];
+        keyHasher.hash(keyBytes, keyBytes.length, hash);
+        return Hex.encodeHexString(hash);
+    }
+}
@@ -0,0 +1,146 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestKeyLockTable {
+
+    private static final KeyHash KEY = new KeyHash(1, 2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadLocksAreShared() throws Exception {
+        final KeyLockTable keyLocks = new KeyLockTable(16);
+        keyLocks.lockRead(KEY);
+        assertTrue(runInOtherThread(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                keyLocks.lockRead(KEY);
+                keyLocks.unlockRead(KEY);
+                return !keyLocks.tryLockWrite(KEY);
+            }
+        }));
+        keyLocks.unlockRead(KEY);
+        assertEquals(0, keyLocks.getContendedCount());
+        assertEquals(1, keyLocks.getFailedTryLocksCount());
+    }
+
+    @Test
+    public void testWriteLockIsExclusiveAndContentionIsCounted() throws Exception {
+        final KeyLockTable keyLocks = new KeyLockTable(16);
+        keyLocks.lockWrite(KEY);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> reader = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    keyLocks.lockRead(KEY);
+                    keyLocks.unlockRead(KEY);
+                    return true;
+                }
+            });
+            Thread.sleep(50);
+            assertFalse(reader.isDone());
+            keyLocks.unlockWrite(KEY);
+            assertTrue(reader.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, keyLocks.getAcquisitionsCount());
+        assertEquals(1, keyLocks.getContendedCount());
+        assertTrue(keyLocks.getWaitTimeMillis() >= 40);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripesCountMustBePowerOfTwo() {
+        new FileStorageConfig().setLockStripesCount(1000);
+    }
+
+    @Test
+    public void testConcurrentSavesDeletesAndCleansKeepAccounting() throws Exception {
+        final long capacity = 64 * 1024 * 1024;
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(512);
+        config.setLockStripesCount(64);
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(), capacity, config);
+        final List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for (int worker = 0; worker < 64; worker++) {
+            final Random random = new Random(worker);
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 200; i++) {
+                        final String key = "key" + random.nextInt(50);
+                        try {
+                            switch (random.nextInt(4)) {
+                                case 0:
+                                    fileStorage.deleteFile(key);
+                                    break;
+                                case 1:
+                                    fileStorage.clean(1024);
+                                    break;
+                                default:
+                                    fileStorage.saveFile(key, new ByteArrayInputStream(new byte[1 + random.nextInt(1024)]));
+                            }
+                        } catch (FileNotFoundException e) {
+                            /*deleted concurrently*/
+                        } catch (FileAlreadyExistsException e) {
+                            /*saved concurrently*/
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (Future<Void> result : executor.invokeAll(workers)) result.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        long storedBytes = 0;
+        int storedCount = 0;
+        for (int key = 0; key < 50; key++) {
+            try {
+                final java.io.InputStream inputStream = fileStorage.readFile("key" + key);
+                try {
+                    while (inputStream.read() >= 0) storedBytes++;
+                } finally {
+                    inputStream.close();
+                }
+                storedCount++;
+            } catch (FileNotFoundException e) {
+                /*not stored*/
+            }
+        }
+        assertEquals(storedCount, fileStorage.getObjectsCount());
+        assertEquals(capacity - storedBytes, fileStorage.getFreeSpace());
+        assertTrue(fileStorage.getKeyLocks().getAcquisitionsCount() > 0);
+    }
+
+    private static <T> T runInOtherThread(Callable<T> task) throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(task).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
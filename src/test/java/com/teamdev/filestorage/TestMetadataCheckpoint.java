@@ -0,0 +1,87 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestMetadataCheckpoint {
+
+    private static final long CAPACITY = 1024*1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRestartFromCheckpointAndJournal() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        for (int i = 0; i < 100; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        fileStorage.checkpoint();
+        for (int i = 100; i < 150; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        for (int i = 0; i < 10; i++) {
+            fileStorage.deleteFile("key" + i);
+        }
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        final RecoveryReport report = restartedStorage.getRecoveryReport();
+        assertTrue(report.isFromCheckpoint());
+        assertEquals(140, report.getFilesCount());
+        assertEquals(CAPACITY - 140 * 100, restartedStorage.getFreeSpace());
+    }
+
+    @Test
+    public void testCorruptedCheckpointFallsBackToScan() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        for (int i = 0; i < 100; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[100]));
+        }
+        fileStorage.checkpoint();
+        fileStorage.close();
+
+        final RandomAccessFile checkpointFile =
+                new RandomAccessFile(new File(rootFolder, MetadataCheckpoint.CHECKPOINT_FILE_NAME), "rw");
+        checkpointFile.seek(20);
+        checkpointFile.write(checkpointFile.read() ^ 0xFF);
+        checkpointFile.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        final RecoveryReport report = restartedStorage.getRecoveryReport();
+        assertFalse(report.isFromCheckpoint());
+        assertEquals(100, report.getFilesCount());
+        assertEquals(CAPACITY - 100 * 100, restartedStorage.getFreeSpace());
+    }
+
+    @Test
+    public void testTornJournalRecordIsIgnored() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        fileStorage.saveFile("first", new ByteArrayInputStream(new byte[100]));
+        fileStorage.saveFile("second", new ByteArrayInputStream(new byte[100]));
+        fileStorage.close();
+
+        final File journalFile = new File(rootFolder, MetadataCheckpoint.JOURNAL_FILE_NAME);
+        final RandomAccessFile journal = new RandomAccessFile(journalFile, "rw");
+        journal.setLength(journal.length() - 10);
+        journal.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        assertEquals(1, restartedStorage.getObjectsCount());
+    }
+}
@@ -0,0 +1,144 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestObjectCache {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCachedBytes() {
+        final ObjectCache cache = new ObjectCache(64 * 1024, 8 * 1024);
+        final ObjectMetadata metadata = createMetadata(1, 1500);
+        assertNull(cache.get(metadata));
+        assertTrue(cache.put(metadata, createObject(1500, 1)));
+        assertArrayEquals(createObject(1500, 1), cache.get(metadata));
+        assertEquals(1500, cache.getCachedBytes());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+
+        assertFalse(cache.put(createMetadata(2, 9000), createObject(9000, 2)));
+        cache.invalidate(metadata.keyHash);
+        assertNull(cache.get(metadata));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testReplacedObjectIsNotServed() {
+        final ObjectCache cache = new ObjectCache(64 * 1024, 8 * 1024);
+        final ObjectMetadata metadata = createMetadata(1, 100);
+        cache.put(metadata, createObject(100, 1));
+        assertNull(cache.get(createMetadata(1, 100)));
+    }
+
+    @Test
+    public void testFrequentObjectsAreKept() {
+        final ObjectCache cache = new ObjectCache(16 * 1024, 1024);
+        for (int key = 0; key < 16; key++) {
+            final ObjectMetadata metadata = createMetadata(key, 1000);
+            for (int i = 0; i < 3; i++) cache.get(metadata);
+            assertTrue(cache.put(metadata, createObject(1000, key)));
+        }
+        for (int key = 100; key < 200; key++) {
+            final ObjectMetadata metadata = createMetadata(key, 1000);
+            assertNull(cache.get(metadata));
+            assertFalse(cache.put(metadata, createObject(1000, key)));
+        }
+        assertEquals(100, cache.getRejectionsCount());
+        assertEquals(0, cache.getEvictionsCount());
+        assertEquals(16, cache.getCachedObjectsCount());
+
+        final ObjectMetadata popular = createMetadata(1000, 1000);
+        for (int i = 0; i < 10; i++) cache.get(popular);
+        assertTrue(cache.put(popular, createObject(1000, 1000)));
+        assertEquals(1, cache.getEvictionsCount());
+        assertTrue(cache.getCachedBytes() <= cache.getCapacityBytes());
+        assertEquals(16 * 1024, cache.getAllocatedBytes());
+    }
+
+    @Test
+    public void testRejectedObjectEvictsNothing() {
+        final ObjectCache cache = new ObjectCache(16 * 1024, 2048);
+        final ObjectMetadata cold = createMetadata(0, 1000);
+        cache.get(cold);
+        assertTrue(cache.put(cold, createObject(1000, 0)));
+        for (int key = 1; key < 16; key++) {
+            final ObjectMetadata metadata = createMetadata(key, 1000);
+            for (int i = 0; i < 5; i++) cache.get(metadata);
+            assertTrue(cache.put(metadata, createObject(1000, key)));
+        }
+        final ObjectMetadata candidate = createMetadata(100, 2000);
+        for (int i = 0; i < 3; i++) cache.get(candidate);
+        assertFalse(cache.put(candidate, createObject(2000, 100)));
+        assertEquals(0, cache.getEvictionsCount());
+        assertEquals(16, cache.getCachedObjectsCount());
+        assertArrayEquals(createObject(1000, 0), cache.get(cold));
+    }
+
+    @Test
+    public void testReadsAreServedAndInvalidated() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setObjectCache(1024 * 1024, 16 * 1024);
+        config.setPackingThresholdBytes(1024);
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(),
+                16 * 1024 * 1024, config);
+        final ObjectCache cache = fileStorage.getObjectCache();
+        for (int size : new int[]{500, 5000}) {
+            final String key = "key" + size;
+            fileStorage.saveFile(key, new ByteArrayInputStream(createObject(size, 1)));
+            assertArrayEquals(createObject(size, 1), read(fileStorage, key));
+            final long hits = cache.getHitsCount();
+            assertArrayEquals(createObject(size, 1), read(fileStorage, key));
+            assertEquals(hits + 1, cache.getHitsCount());
+
+            assertTrue(fileStorage.deleteFile(key));
+            try {
+                fileStorage.readFile(key);
+                fail("Deleted object is read");
+            } catch (FileNotFoundException e) {
+                // expected
+            }
+            fileStorage.saveFile(key, new ByteArrayInputStream(createObject(size, 2)));
+            assertArrayEquals(createObject(size, 2), read(fileStorage, key));
+        }
+        fileStorage.saveFile("big", new ByteArrayInputStream(createObject(20000, 3)));
+        assertArrayEquals(createObject(20000, 3), read(fileStorage, "big"));
+        assertEquals(20000 + 500 + 5000, fileStorage.clean(1024 * 1024));
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    private static byte[] read(FileStorage fileStorage, String key) throws Exception {
+        final InputStream inputStream = fileStorage.readFile(key);
+        try {
+            final byte[] buffer = new byte[64 * 1024];
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(buffer, length, buffer.length - length)) > 0) length += read;
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static ObjectMetadata createMetadata(long key, long size) {
+        return new ObjectMetadata(new KeyHash(key * 0x9E3779B97F4A7C15L, key), size, 0, 0, 0);
+    }
+
+    private static byte[] createObject(int size, int seed) {
+        final byte[] object = new byte[size];
+        for (int i = 0; i < size; i++) object[i] = (byte) (i * 31 + seed);
+        return object;
+    }
+}
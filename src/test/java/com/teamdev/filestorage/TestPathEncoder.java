@@ -0,0 +1,55 @@
+package com.teamdev.filestorage;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Alex Geta
+ */
+public class TestPathEncoder {
+
+    private final File rootFolder = new File("src" + File.separator + "rootFolder");
+
+    @Test
+    public void testKnownLayout() {
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        assertEquals(new File(rootFolder, "d81/42c/bd7/8c688ae7b47e150472c50c8.dat"),
+                pathEncoder.getFile("someKey"));
+    }
+
+    @Test
+    public void testSameLayoutAsRegexSplit() {
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        final String[] keys = {"a", "someKey1", "fileKey99", "\u043a\u043b\u044e\u0447", "\u65e5\u672c\u8a9e",
+                "very long key ................................................................................"};
+        for (String key : keys) {
+            assertEquals(legacyFile(key), pathEncoder.getFile(key));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(legacyFile("key" + i), pathEncoder.getFile("key" + i));
+        }
+    }
+
+    @Test
+    public void testFileByHash() {
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        final KeyHash keyHash = pathEncoder.hash("someKey");
+        assertEquals("d8142cbd78c688ae7b47e150472c50c8", keyHash.toString());
+        assertEquals(pathEncoder.getFile("someKey"), pathEncoder.getFile(keyHash));
+    }
+
+    private File legacyFile(String key) {
+        final String keyHash = DigestUtils.md5Hex(key);
+        final String[] hashChunks = keyHash.split("(?<=\\G.{3})");
+        final StringBuilder pathName = new StringBuilder(rootFolder.toString()).append(File.separator);
+        for (int i = 0; i < 3; i++) {
+            pathName.append(hashChunks[i]).append(File.separator);
+        }
+        pathName.append(keyHash.substring(9)).append(".dat");
+        return new File(pathName.toString());
+    }
+}
@@ -0,0 +1,186 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestRangeReads {
+
+    private static final int OBJECT_SIZE = 100 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFileRanges() throws Exception {
+        testRanges(new FileStorageConfig(), OBJECT_SIZE);
+    }
+
+    @Test
+    public void testPackedRanges() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        testRanges(config, 3000);
+    }
+
+    @Test
+    public void testMappedRanges() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setMappedReads(1024, 2);
+        testRanges(config, OBJECT_SIZE);
+    }
+
+    @Test
+    public void testMappingsLimit() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setMappedReads(1024, 2);
+        final FileStorageImpl fileStorage = createStorage(config);
+        for (int i = 0; i < 4; i++) {
+            final byte[] object = createObject(OBJECT_SIZE, i);
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(object));
+            assertEquals(object[500], fileStorage.readRange("key" + i, 500, 1).get());
+        }
+        fileStorage.saveFile("small", new ByteArrayInputStream(createObject(100, 0)));
+        assertEquals(10, fileStorage.readRange("small", 10, 10).remaining());
+        assertTrue(fileStorage.deleteFile("key3"));
+        try {
+            fileStorage.readRange("key3", 0, 1);
+            fail("Deleted object is read");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFileTransfer() throws Exception {
+        testTransfer(new FileStorageConfig(), OBJECT_SIZE);
+    }
+
+    @Test
+    public void testPackedTransfer() throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        testTransfer(config, 3000);
+    }
+
+    @Test
+    public void testMissingObject() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(new FileStorageConfig());
+        try {
+            fileStorage.openFile("missing");
+            fail("Missing object is opened");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChannelAcrossRegions() throws Exception {
+        final byte[] object = createObject(1000, 7);
+        final ByteBuffer[] regions = new ByteBuffer[8];
+        for (int i = 0; i < regions.length; i++) {
+            regions[i] = ByteBuffer.wrap(object, i * 128, Math.min(128, object.length - i * 128)).slice();
+        }
+        final BufferChannel channel = new BufferChannel(regions, 7, object.length);
+        channel.position(100);
+        final ByteBuffer buffer = ByteBuffer.allocate(500);
+        assertEquals(500, channel.read(buffer));
+        assertRange(object, 100, buffer);
+        channel.position(990);
+        buffer.clear();
+        assertEquals(10, channel.read(buffer));
+        assertEquals(-1, channel.read(buffer));
+        try {
+            channel.write(ByteBuffer.allocate(1));
+            fail("Read-only channel is written");
+        } catch (NonWritableChannelException e) {
+            // expected
+        }
+    }
+
+    private void testRanges(FileStorageConfig config, int objectSize) throws Exception {
+        final FileStorageImpl fileStorage = createStorage(config);
+        final byte[] object = createObject(objectSize, 1);
+        fileStorage.saveFile("key", new ByteArrayInputStream(object));
+
+        assertRange(object, 0, fileStorage.readRange("key", 0, 10));
+        assertRange(object, objectSize / 2, fileStorage.readRange("key", objectSize / 2, 1000));
+        final ByteBuffer tail = fileStorage.readRange("key", objectSize - 5, 100);
+        assertEquals(5, tail.remaining());
+        assertRange(object, objectSize - 5, tail);
+        assertEquals(0, fileStorage.readRange("key", objectSize + 10, 100).remaining());
+
+        final SeekableByteChannel channel = fileStorage.openFile("key");
+        try {
+            assertEquals(objectSize, channel.size());
+            channel.position(objectSize / 3);
+            final ByteBuffer buffer = ByteBuffer.allocate(700);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) ;
+            buffer.flip();
+            assertRange(object, objectSize / 3, buffer);
+            assertEquals(objectSize / 3 + 700, channel.position());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void testTransfer(FileStorageConfig config, int objectSize) throws Exception {
+        final FileStorageImpl fileStorage = createStorage(config);
+        final byte[] object = createObject(objectSize, 3);
+        fileStorage.saveFile("first", new ByteArrayInputStream(createObject(objectSize, 2)));
+        fileStorage.saveFile("key", new ByteArrayInputStream(object));
+
+        final File targetFile = temporaryFolder.newFile();
+        final FileChannel target = FileChannel.open(targetFile.toPath(), StandardOpenOption.WRITE);
+        try {
+            assertEquals(objectSize, fileStorage.transferTo("key", target));
+        } finally {
+            target.close();
+        }
+        assertArrayEquals(object, Files.readAllBytes(targetFile.toPath()));
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final WritableByteChannel channel = Channels.newChannel(outputStream);
+        assertEquals(100, fileStorage.transferTo("key", 10, 100, channel));
+        assertEquals(5, fileStorage.transferTo("key", objectSize - 5, 100, channel));
+        assertEquals(0, fileStorage.transferTo("key", objectSize + 1, 100, channel));
+        final ByteBuffer transferred = ByteBuffer.wrap(outputStream.toByteArray());
+        assertEquals(105, transferred.remaining());
+        transferred.limit(100);
+        assertRange(object, 10, transferred);
+        transferred.limit(105);
+        assertRange(object, objectSize - 5, transferred);
+    }
+
+    private FileStorageImpl createStorage(FileStorageConfig config) throws Exception {
+        return new FileStorageImpl(temporaryFolder.newFolder().getPath(), 64 * 1024 * 1024, config);
+    }
+
+    private static void assertRange(byte[] object, int offset, ByteBuffer range) {
+        final byte[] bytes = new byte[range.remaining()];
+        range.get(bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(object[offset + i], bytes[i]);
+        }
+    }
+
+    private static byte[] createObject(int size, int seed) {
+        final byte[] object = new byte[size];
+        for (int i = 0; i < size; i++) object[i] = (byte) (i * 31 + seed);
+        return object;
+    }
+}
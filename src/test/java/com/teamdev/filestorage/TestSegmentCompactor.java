@@ -0,0 +1,162 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestSegmentCompactor {
+
+    private static final int OBJECTS_COUNT = 400;
+    private static final int OBJECT_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static FileStorageImpl createStorage(File rootFolder, long checkpointIntervalMillis) {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(4096);
+        config.setSegmentSizeBytes(64 * 1024);
+        config.setCompactionLivenessThreshold(0.5);
+        config.setCompactionIoShare(1);
+        config.setCheckpointIntervalMillis(checkpointIntervalMillis);
+        return new FileStorageImpl(rootFolder.getPath(), 10 * 1024 * 1024, config);
+    }
+
+    private static byte[] createObject(int index) {
+        final byte[] bytes = new byte[OBJECT_SIZE];
+        Arrays.fill(bytes, (byte) index);
+        return bytes;
+    }
+
+    private static byte[] read(FileStorageImpl fileStorage, String key) throws IOException {
+        final InputStream inputStream = fileStorage.readFile(key);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void awaitCompaction(FileStorageImpl fileStorage) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        do {
+            Thread.sleep(50);
+        } while (fileStorage.getSegmentCompactor().isCompacting() && System.currentTimeMillis() < deadline);
+        assertFalse(fileStorage.getSegmentCompactor().isCompacting());
+    }
+
+    private static long getSegmentsBytes(File rootFolder) {
+        long bytes = 0;
+        for (File segment : new File(rootFolder, SegmentStore.FOLDER_NAME).listFiles()) {
+            bytes += segment.length();
+        }
+        return bytes;
+    }
+
+    private static FileStorageImpl saveAndDeleteMost(File rootFolder, long checkpointIntervalMillis) throws Exception {
+        final FileStorageImpl fileStorage = createStorage(rootFolder, checkpointIntervalMillis);
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(createObject(i)));
+        }
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            if (i % 4 != 0) fileStorage.deleteFile("key" + i);
+        }
+        awaitCompaction(fileStorage);
+        return fileStorage;
+    }
+
+    @Test
+    public void testDeadBytesAreReclaimed() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = saveAndDeleteMost(rootFolder, 60000);
+
+        final SegmentCompactor compactor = fileStorage.getSegmentCompactor();
+        assertTrue(compactor.getCompactedSegmentsCount() > 0);
+        assertTrue(compactor.getReclaimedBytes() > compactor.getRelocatedBytes());
+        assertEquals(compactor.getReadBytes(), compactor.getReclaimedBytes() + compactor.getRelocatedBytes());
+        assertTrue(getSegmentsBytes(rootFolder) < OBJECTS_COUNT * OBJECT_SIZE / 2);
+        assertEquals(OBJECTS_COUNT / 4, fileStorage.getObjectsCount());
+        for (int i = 0; i < OBJECTS_COUNT; i += 4) {
+            assertArrayEquals(createObject(i), read(fileStorage, "key" + i));
+        }
+    }
+
+    @Test
+    public void testRecoveryAfterCompactionFromCheckpoint() throws Exception {
+        testRecoveryAfterCompaction(60000);
+    }
+
+    @Test
+    public void testRecoveryAfterCompactionBySegmentScan() throws Exception {
+        testRecoveryAfterCompaction(0);
+    }
+
+    private void testRecoveryAfterCompaction(long checkpointIntervalMillis) throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        saveAndDeleteMost(rootFolder, checkpointIntervalMillis).close();
+
+        final FileStorageImpl restartedStorage = createStorage(rootFolder, checkpointIntervalMillis);
+        awaitCompaction(restartedStorage);
+        assertEquals(OBJECTS_COUNT / 4, restartedStorage.getObjectsCount());
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            if (i % 4 == 0) assertArrayEquals(createObject(i), read(restartedStorage, "key" + i));
+            else {
+                try {
+                    restartedStorage.readFile("key" + i);
+                    fail("Deleted object must not be read");
+                } catch (FileNotFoundException e) {
+                    /*expected*/
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadsDuringCompaction() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(temporaryFolder.newFolder(), 60000);
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(createObject(i)));
+        }
+        final AtomicBoolean isDeleting = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (isDeleting.get()) {
+                        for (int i = 0; i < OBJECTS_COUNT; i += 4) {
+                            assertArrayEquals(createObject(i), read(fileStorage, "key" + i));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            if (i % 4 != 0) fileStorage.deleteFile("key" + i);
+        }
+        awaitCompaction(fileStorage);
+        isDeleting.set(false);
+        reader.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertTrue(fileStorage.getSegmentCompactor().getCompactedSegmentsCount() > 0);
+    }
+}
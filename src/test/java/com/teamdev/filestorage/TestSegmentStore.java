@@ -0,0 +1,157 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestSegmentStore {
+
+    private static final int THRESHOLD = 4096;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static FileStorageImpl createStorage(File rootFolder, long checkpointIntervalMillis) {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(THRESHOLD);
+        config.setSegmentSizeBytes(64 * 1024);
+        config.setCompactionLivenessThreshold(0);
+        config.setCheckpointIntervalMillis(checkpointIntervalMillis);
+        return new FileStorageImpl(rootFolder.getPath(), 10 * 1024 * 1024, config);
+    }
+
+    private static byte[] createObject(int index, int size) {
+        final byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) index);
+        return bytes;
+    }
+
+    private static byte[] read(FileStorageImpl fileStorage, String key) throws IOException {
+        final InputStream inputStream = fileStorage.readFile(key);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static int countDataFolders(File rootFolder) {
+        return rootFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && !file.getName().equals(SegmentStore.FOLDER_NAME);
+            }
+        }).length;
+    }
+
+    @Test
+    public void testSmallObjectsArePacked() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = createStorage(rootFolder, 60000);
+        for (int i = 0; i < 100; i++) {
+            fileStorage.saveFile("small" + i, new ByteArrayInputStream(createObject(i, 1000)));
+        }
+        fileStorage.saveFile("large", new ByteArrayInputStream(createObject(7, THRESHOLD + 1)));
+
+        assertEquals(1, countDataFolders(rootFolder));
+        assertTrue(new File(rootFolder, SegmentStore.FOLDER_NAME).list().length > 1);
+        assertEquals(101, fileStorage.getObjectsCount());
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(createObject(i, 1000), read(fileStorage, "small" + i));
+        }
+        assertArrayEquals(createObject(7, THRESHOLD + 1), read(fileStorage, "large"));
+    }
+
+    @Test(expected = java.nio.file.FileAlreadyExistsException.class)
+    public void testPackedKeyCanNotBeSavedTwice() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(temporaryFolder.newFolder(), 60000);
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[10]));
+        fileStorage.saveFile("key", new ByteArrayInputStream(new byte[10]));
+    }
+
+    @Test
+    public void testDeleteAndClean() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(temporaryFolder.newFolder(), 60000);
+        for (int i = 0; i < 10; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(createObject(i, 100)));
+        }
+        assertTrue(fileStorage.deleteFile("key0"));
+        try {
+            fileStorage.readFile("key0");
+            fail("Deleted object must not be read");
+        } catch (FileNotFoundException e) {
+            /*expected*/
+        }
+        assertEquals(500, fileStorage.clean(500));
+        assertEquals(4, fileStorage.getObjectsCount());
+        assertEquals(10 * 1024 * 1024 - 400, fileStorage.getFreeSpace());
+    }
+
+    @Test
+    public void testRecoveryFromCheckpoint() throws Exception {
+        testRecovery(60000);
+    }
+
+    @Test
+    public void testRecoveryBySegmentScan() throws Exception {
+        testRecovery(0);
+    }
+
+    private void testRecovery(long checkpointIntervalMillis) throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = createStorage(rootFolder, checkpointIntervalMillis);
+        for (int i = 0; i < 200; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(createObject(i, 500)));
+        }
+        for (int i = 0; i < 200; i += 2) {
+            fileStorage.deleteFile("key" + i);
+        }
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = createStorage(rootFolder, checkpointIntervalMillis);
+        assertEquals(100, restartedStorage.getObjectsCount());
+        assertEquals(100 * 500, restartedStorage.getRecoveryReport().getBytes());
+        for (int i = 1; i < 200; i += 2) {
+            assertArrayEquals(createObject(i, 500), read(restartedStorage, "key" + i));
+        }
+        restartedStorage.saveFile("key0", new ByteArrayInputStream(createObject(0, 500)));
+        assertArrayEquals(createObject(0, 500), read(restartedStorage, "key0"));
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = createStorage(rootFolder, 0);
+        fileStorage.saveFile("first", new ByteArrayInputStream(createObject(1, 100)));
+        fileStorage.saveFile("second", new ByteArrayInputStream(createObject(2, 100)));
+        fileStorage.close();
+
+        final File segment = new File(new File(rootFolder, SegmentStore.FOLDER_NAME), "1.seg");
+        final RandomAccessFile segmentFile = new RandomAccessFile(segment, "rw");
+        try {
+            segmentFile.setLength(segmentFile.length() - 10);
+        } finally {
+            segmentFile.close();
+        }
+
+        final FileStorageImpl restartedStorage = createStorage(rootFolder, 0);
+        assertEquals(1, restartedStorage.getObjectsCount());
+        assertEquals(SegmentStore.HEADER_SIZE + 100 + SegmentStore.TRAILER_SIZE, segment.length());
+        restartedStorage.saveFile("second", new ByteArrayInputStream(createObject(2, 100)));
+        assertArrayEquals(createObject(2, 100), read(restartedStorage, "second"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.teamdev.filestorage;
+
+import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestSpaceLedger {
+
+    private static final int THREADS = 64;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReservationLifecycle() {
+        final SpaceLedger spaceLedger = new SpaceLedger(100);
+        final SpaceLedger.Reservation reservation = spaceLedger.reserve(60);
+        assertNull(spaceLedger.reserve(50));
+        assertTrue(reservation.grow(10));
+        reservation.commit(30);
+        reservation.release();
+        assertEquals(30, spaceLedger.getUsedBytes());
+        assertEquals(0, spaceLedger.getReservedBytes());
+        assertEquals(70, spaceLedger.getFreeBytes());
+        spaceLedger.free(30);
+        assertEquals(100, spaceLedger.getFreeBytes());
+    }
+
+    @Test
+    public void testConcurrentReservations() throws Exception {
+        final long allocated = 1000000;
+        final SpaceLedger spaceLedger = new SpaceLedger(allocated);
+        final AtomicLong expectedUsed = new AtomicLong();
+        final AtomicLong minFree = new AtomicLong(allocated);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    final Random random = new Random(seed);
+                    final List<Long> committed = new ArrayList<Long>();
+                    for (int i = 0; i < 20000; i++) {
+                        final SpaceLedger.Reservation reservation = spaceLedger.reserve(1 + random.nextInt(5000));
+                        if (reservation != null) {
+                            if (random.nextBoolean()) {
+                                final long written = random.nextInt((int) reservation.getReservedBytes() + 1);
+                                reservation.commit(written);
+                                committed.add(written);
+                            } else reservation.release();
+                        }
+                        if (!committed.isEmpty() && random.nextInt(3) == 0) {
+                            spaceLedger.free(committed.remove(committed.size() - 1));
+                        }
+                        final long free = spaceLedger.getFreeBytes();
+                        if (free < minFree.get()) minFree.set(free);
+                    }
+                    for (long bytes : committed) expectedUsed.addAndGet(bytes);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+
+        assertTrue(minFree.get() >= 0);
+        assertEquals(expectedUsed.get(), spaceLedger.getUsedBytes());
+        assertEquals(0, spaceLedger.getReservedBytes());
+        assertEquals(allocated - expectedUsed.get(), spaceLedger.getFreeBytes());
+    }
+
+    @Test
+    public void testConcurrentSaves() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final long allocated = 1024 * 1024;
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), allocated);
+        final AtomicLong savedBytes = new AtomicLong();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    final Random random = new Random(thread);
+                    for (int i = 0; i < 50; i++) {
+                        final byte[] bytes = new byte[1 + random.nextInt(1024)];
+                        try {
+                            if (fileStorage.saveFile("key" + thread + "_" + i, new ByteArrayInputStream(bytes))) {
+                                savedBytes.addAndGet(bytes.length);
+                            }
+                        } catch (NotEnoughFreeSpaceException e) {
+                            /*expected when storage is full*/
+                        }
+                        if (i % 5 == 0 && i > 0) {
+                            final String deletedKey = "key" + thread + "_" + (i - 5);
+                            final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+                            final long length = pathEncoder.getFile(deletedKey).length();
+                            try {
+                                if (fileStorage.deleteFile(deletedKey)) savedBytes.addAndGet(-length);
+                            } catch (FileNotFoundException e) {
+                                /*it wasn't saved because of free space lack*/
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        executor.shutdown();
+
+        assertEquals(allocated - savedBytes.get(), fileStorage.getFreeSpace());
+    }
+}
@@ -0,0 +1,98 @@
+package com.teamdev.filestorage;
+
+import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestSpacePressure {
+
+    private static final int CAPACITY = 10 * 1024;
+    private static final int OBJECT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileStorageImpl createFullStorage(long stallTimeoutMillis) throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setCheckpointIntervalMillis(0);
+        config.setStallTimeoutMillis(stallTimeoutMillis);
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(), CAPACITY, config);
+        for (int i = 0; i < CAPACITY / OBJECT_SIZE; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        }
+        assertEquals(0, fileStorage.getFreeSpace());
+        return fileStorage;
+    }
+
+    @Test
+    public void testCallBackFreesSpaceOnAnotherThread() throws Exception {
+        final FileStorageImpl fileStorage = createFullStorage(10000);
+        final AtomicReference<Thread> callBackThread = new AtomicReference<Thread>();
+        final AtomicLong deficit = new AtomicLong();
+
+        assertTrue(fileStorage.saveFile("new", new ByteArrayInputStream(new byte[2 * OBJECT_SIZE]), new CallBack() {
+            @Override
+            public boolean isEnough(long bytes) {
+                callBackThread.set(Thread.currentThread());
+                deficit.set(bytes);
+                return fileStorage.clean(bytes) >= bytes;
+            }
+        }));
+        assertNotSame(Thread.currentThread(), callBackThread.get());
+        assertEquals(2 * OBJECT_SIZE, deficit.get());
+        assertEquals(CAPACITY / OBJECT_SIZE - 1, fileStorage.getObjectsCount());
+        assertEquals(1, fileStorage.getSpacePressure().getStallsCount());
+        assertEquals(0, fileStorage.getSpacePressure().getPendingRequestsCount());
+    }
+
+    @Test(expected = NotEnoughFreeSpaceException.class)
+    public void testRefusingCallBackFails() throws Exception {
+        final FileStorageImpl fileStorage = createFullStorage(10000);
+        fileStorage.saveFile("new", new ByteArrayInputStream(new byte[OBJECT_SIZE]), new CallBack() {
+            @Override
+            public boolean isEnough(long bytes) {
+                return false;
+            }
+        });
+    }
+
+    @Test
+    public void testSlowCallBackTimesOut() throws Exception {
+        final FileStorageImpl fileStorage = createFullStorage(100);
+        final long startTime = System.currentTimeMillis();
+        try {
+            fileStorage.saveFile("new", new ByteArrayInputStream(new byte[OBJECT_SIZE]), new CallBack() {
+                @Override
+                public boolean isEnough(long bytes) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return true;
+                }
+            });
+            fail("Saving must fail by stall timeout");
+        } catch (NotEnoughFreeSpaceException e) {
+            assertTrue(System.currentTimeMillis() - startTime < 1000);
+        }
+        assertEquals(1, fileStorage.getSpacePressure().getFailedStallsCount());
+        assertEquals(CAPACITY, CAPACITY - fileStorage.getFreeSpace());
+    }
+
+    @Test(expected = NotEnoughFreeSpaceException.class)
+    public void testFailsAtOnceWithoutCallBack() throws Exception {
+        final FileStorageImpl fileStorage = createFullStorage(10000);
+        fileStorage.saveFile("new", new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+    }
+}
@@ -0,0 +1,75 @@
+package com.teamdev.filestorage;
+
+import com.teamdev.filestorage.exception.NotEnoughFreeSpaceException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestSpaceReclaimer {
+
+    private static final int CAPACITY = 100 * 1024;
+    private static final int OBJECT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileStorageImpl createStorage(long rateBytesPerSecond) throws Exception {
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setReclaimWatermarks(0.8, 0.5);
+        config.setReclaimRateBytesPerSecond(rateBytesPerSecond);
+        config.setCheckpointIntervalMillis(0);
+        return new FileStorageImpl(temporaryFolder.newFolder().getPath(), CAPACITY, config);
+    }
+
+    @Test
+    public void testReclaimsDownToLowWatermark() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(0);
+        for (int i = 0; i < 81; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        }
+        final SpaceReclaimer spaceReclaimer = fileStorage.getSpaceReclaimer();
+        final SpacePressure spacePressure = fileStorage.getSpacePressure();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (fileStorage.getFreeSpace() < CAPACITY / 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(50, fileStorage.getObjectsCount());
+        assertEquals(31 * OBJECT_SIZE, spaceReclaimer.getReclaimedBytes());
+        assertEquals(0, spacePressure.getFailedStallsCount());
+    }
+
+    @Test
+    public void testBurstDoesNotFail() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(OBJECT_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        }
+        final SpacePressure spacePressure = fileStorage.getSpacePressure();
+        assertTrue(spacePressure.getStallsCount() > 0);
+        assertEquals(0, spacePressure.getFailedStallsCount());
+        assertTrue(fileStorage.getObjectsCount() <= CAPACITY / OBJECT_SIZE);
+    }
+
+    @Test
+    public void testFailsWhenNothingToEvict() throws Exception {
+        final FileStorageImpl fileStorage = createStorage(0);
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            fileStorage.saveFile("big", new ByteArrayInputStream(new byte[CAPACITY + 1]));
+        } catch (NotEnoughFreeSpaceException e) {
+            failures.incrementAndGet();
+        }
+        assertEquals(1, failures.get());
+        assertEquals(1, fileStorage.getSpacePressure().getFailedStallsCount());
+        assertTrue(fileStorage.getSpacePressure().getMaxStallTimeMillis() < 1000);
+    }
+}
@@ -0,0 +1,129 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Alex Geta
+ */
+public class TestStorageCleaner {
+
+    private static final int OBJECTS_COUNT = 2000;
+    private static final int OBJECT_SIZE = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static int countFolders(File rootFolder) {
+        return rootFolder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        }).length;
+    }
+
+    @Test
+    public void testParallelCleanPrunesFolders() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setCleanParallelism(4);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024, config);
+        for (int i = 0; i < OBJECTS_COUNT; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        }
+
+        assertEquals(OBJECTS_COUNT / 2 * OBJECT_SIZE, fileStorage.clean(OBJECTS_COUNT / 2 * OBJECT_SIZE));
+        assertEquals(OBJECTS_COUNT / 2, fileStorage.getObjectsCount());
+        assertEquals(OBJECTS_COUNT / 2 * OBJECT_SIZE, fileStorage.clean(Long.MAX_VALUE));
+        assertEquals(0, fileStorage.getObjectsCount());
+        assertEquals(1024 * 1024, fileStorage.getFreeSpace());
+        assertEquals(0, countFolders(rootFolder));
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024);
+        assertEquals(0, restartedStorage.getObjectsCount());
+    }
+
+    @Test
+    public void testFolderOfRemainingObjectIsKept() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            /*the last object is the newest one, objects saved in the same millisecond are evicted in key hash order*/
+            if (i == 99) Thread.sleep(2);
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        }
+        assertEquals(99 * OBJECT_SIZE, fileStorage.clean(99 * OBJECT_SIZE));
+        assertEquals(1, countFolders(rootFolder));
+        assertEquals(OBJECT_SIZE, fileStorage.readFile("key99").read(new byte[OBJECT_SIZE]));
+    }
+
+    @Test
+    public void testKeySavedAgainDuringClean() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final AtomicReference<FileStorage> storage = new AtomicReference<FileStorage>();
+        final AtomicBoolean isArmed = new AtomicBoolean();
+        final List<Thread> savers = new ArrayList<Thread>();
+        final EvictionPolicy evictionPolicy = new LruEvictionPolicy() {
+            /**
+             * Saves the key again while the cleaner is removing it, and gives the save a chance to complete.
+             */
+            @Override
+            public void onRemove(ObjectMetadata object) {
+                if (isArmed.getAndSet(false)) {
+                    final Thread saver = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                storage.get().saveFile("key0", new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    });
+                    savers.add(saver);
+                    saver.start();
+                    try {
+                        saver.join(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.onRemove(object);
+            }
+        };
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setEvictionPolicy(evictionPolicy);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024, config);
+        storage.set(fileStorage);
+        fileStorage.saveFile("key0", new ByteArrayInputStream(new byte[OBJECT_SIZE]));
+        fileStorage.checkpoint();
+
+        isArmed.set(true);
+        assertEquals(OBJECT_SIZE, fileStorage.clean(OBJECT_SIZE));
+        for (Thread saver : savers) saver.join();
+        assertEquals(1, savers.size());
+        assertEquals(1, fileStorage.getObjectsCount());
+        assertEquals(1, evictionPolicy.pollVictims(Long.MAX_VALUE).size());
+        fileStorage.close();
+
+        final FileStorageImpl restartedStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024);
+        assertTrue(restartedStorage.getRecoveryReport().isFromCheckpoint());
+        assertEquals(1, restartedStorage.getObjectsCount());
+        restartedStorage.close();
+    }
+}
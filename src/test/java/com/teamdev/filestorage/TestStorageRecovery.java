@@ -0,0 +1,178 @@
+package com.teamdev.filestorage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Alex Geta
+ */
+public class TestStorageRecovery {
+
+    private static final long CAPACITY = 1024*1024;
+    private static final int FILES_COUNT = 500;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBlockingRecovery() throws Exception {
+        final File rootFolder = fillStorage();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        assertEquals(FILES_COUNT, fileStorage.getObjectsCount());
+        assertEquals(CAPACITY - expectedBytes(), fileStorage.getFreeSpace());
+        assertEquals(FILES_COUNT, fileStorage.getRecoveryReport().getFilesCount());
+    }
+
+    @Test
+    public void testBackgroundRecovery() throws Exception {
+        final File rootFolder = fillStorage();
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setRecoveryMode(RecoveryMode.BACKGROUND);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY, config);
+        fileStorage.readFile("key0").close();
+        final RecoveryReport report = fileStorage.awaitRecovery();
+        assertEquals(FILES_COUNT, report.getFilesCount());
+        assertEquals(expectedBytes(), report.getBytes());
+        assertEquals(CAPACITY - expectedBytes(), fileStorage.getFreeSpace());
+    }
+
+    @Test
+    public void testRecoveredFilesAreCleaned() throws Exception {
+        final File rootFolder = fillStorage();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        fileStorage.clean(expectedBytes());
+        assertEquals(CAPACITY, fileStorage.getFreeSpace());
+        assertEquals(0, fileStorage.getObjectsCount());
+    }
+
+    @Test
+    public void testOrphansAreSweptByRecoveryScan() throws Exception {
+        final File rootFolder = fillStorage();
+        final List<File> orphans = createOrphans(rootFolder);
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setCheckpointIntervalMillis(0);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY, config);
+        assertEquals(FILES_COUNT, fileStorage.getObjectsCount());
+        assertEquals(orphans.size(), fileStorage.getSweptOrphansCount());
+        for (File orphan : orphans) assertFalse(orphan.exists());
+    }
+
+    @Test
+    public void testOrphansAreSweptAfterCheckpointLoad() throws Exception {
+        final File rootFolder = fillStorage();
+        final List<File> orphans = createOrphans(rootFolder);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        assertTrue(fileStorage.getRecoveryReport().isFromCheckpoint());
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (fileStorage.getSweptOrphansCount() < orphans.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(orphans.size(), fileStorage.getSweptOrphansCount());
+        for (File orphan : orphans) assertFalse(orphan.exists());
+        assertEquals(FILES_COUNT, fileStorage.getObjectsCount());
+    }
+
+    @Test
+    public void testPartialObjectIsNeverRead() throws Exception {
+        final FileStorageImpl fileStorage = new FileStorageImpl(temporaryFolder.newFolder().getPath(), CAPACITY);
+        final int size = 256 * 1024;
+        final AtomicBoolean isSaved = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!isSaved.get()) {
+                        try {
+                            final InputStream inputStream = fileStorage.readFile("key");
+                            long length = 0;
+                            try {
+                                while (inputStream.read() >= 0) length++;
+                            } finally {
+                                inputStream.close();
+                            }
+                            assertEquals(size, length);
+                        } catch (FileNotFoundException e) {
+                            /*not published yet*/
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        reader.start();
+        assertTrue(fileStorage.saveFile("key", new ByteArrayInputStream(new byte[size]) {
+            @Override
+            public synchronized int read(byte[] bytes, int offset, int length) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(bytes, offset, Math.min(length, 4096));
+            }
+        }));
+        isSaved.set(true);
+        reader.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+
+    @Test
+    public void testRootFolderIsLocked() throws Exception {
+        final File rootFolder = fillStorage();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        try {
+            new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+            fail("Root folder must not be shared by two storages");
+        } catch (IllegalArgumentException e) {
+            /*expected*/
+        }
+        fileStorage.close();
+        final FileStorageImpl reopenedStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        assertEquals(FILES_COUNT, reopenedStorage.getObjectsCount());
+        reopenedStorage.close();
+    }
+
+    /**
+     * Puts temporary files of unfinished writes next to stored objects.
+     */
+    private static List<File> createOrphans(File rootFolder) throws IOException {
+        final List<File> orphans = new ArrayList<File>();
+        final PathEncoder pathEncoder = new PathEncoder(rootFolder, new Md5KeyHasher());
+        for (int i = 0; i < FILES_COUNT; i += 50) {
+            final File file = pathEncoder.getFile("key" + i);
+            final File orphan = new File(file.getParentFile(), file.getName() + ".0123." + i + PathEncoder.TEMP_EXT);
+            assertTrue(orphan.createNewFile());
+            orphans.add(orphan);
+        }
+        return orphans;
+    }
+
+    private File fillStorage() throws Exception {
+        final File rootFolder = temporaryFolder.newFolder();
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), CAPACITY);
+        for (int i = 0; i < FILES_COUNT; i++) {
+            fileStorage.saveFile("key" + i, new ByteArrayInputStream(new byte[1 + i % 100]));
+        }
+        fileStorage.close();
+        return rootFolder;
+    }
+
+    private static long expectedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < FILES_COUNT; i++) {
+            bytes += 1 + i % 100;
+        }
+        return bytes;
+    }
+}
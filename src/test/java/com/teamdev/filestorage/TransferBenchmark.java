@@ -0,0 +1,93 @@
+package com.teamdev.filestorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Sends stored objects to local socket and prints throughput of copying them from input stream through
+ * user space buffer and of zero-copy transfer. Run with main method from test classpath.
+ *
+ * @author Alex Geta
+ */
+public class TransferBenchmark {
+
+    private static final int OBJECTS_COUNT = 64;
+    private static final int SENDS_COUNT = 2000;
+
+    public static void main(String[] args) throws Exception {
+        final File rootFolder = Files.createTempDirectory("transfer-benchmark").toFile();
+        final FileStorageConfig config = new FileStorageConfig();
+        config.setPackingThresholdBytes(16 * 1024);
+        final FileStorageImpl fileStorage = new FileStorageImpl(rootFolder.getPath(), 1024 * 1024 * 1024, config);
+        final Random random = new Random(1);
+        for (int objectSize : new int[]{4 * 1024, 1024 * 1024}) {
+            for (int i = 0; i < OBJECTS_COUNT; i++) {
+                final byte[] object = new byte[objectSize];
+                random.nextBytes(object);
+                fileStorage.saveFile(objectSize + "-" + i, new ByteArrayInputStream(object));
+            }
+        }
+
+        final ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+        final SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        final SocketChannel sink = server.accept();
+        final Thread drain = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+                try {
+                    while (sink.read(buffer) >= 0) buffer.clear();
+                } catch (Exception e) {
+                    // closed
+                }
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+
+        for (int round = 0; round < 2; round++) {
+            for (int objectSize : new int[]{4 * 1024, 1024 * 1024}) {
+                final int sendsCount = objectSize > 16 * 1024 ? SENDS_COUNT : SENDS_COUNT * 20;
+                run("stream copy", fileStorage, client, objectSize, sendsCount, false);
+                run("transferTo", fileStorage, client, objectSize, sendsCount, true);
+            }
+        }
+        client.close();
+        sink.close();
+        server.close();
+    }
+
+    private static void run(String name, FileStorageImpl fileStorage, SocketChannel target, int objectSize,
+                            int sendsCount, boolean isTransfer) throws Exception {
+        final byte[] buffer = new byte[64 * 1024];
+        final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < sendsCount; i++) {
+            final String key = objectSize + "-" + (i % OBJECTS_COUNT);
+            if (isTransfer) {
+                fileStorage.transferTo(key, target);
+            } else {
+                final InputStream inputStream = fileStorage.readFile(key);
+                try {
+                    int read;
+                    while ((read = inputStream.read(buffer)) > 0) {
+                        wrapper.clear().limit(read);
+                        while (wrapper.hasRemaining()) target.write(wrapper);
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            }
+        }
+        final long elapsedMillis = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        System.out.println(String.format("%7d byte objects, %-11s %7d objects/s, %5d MB/s", objectSize, name,
+                sendsCount * 1000L / elapsedMillis, (long) sendsCount * objectSize / 1000 / elapsedMillis));
+    }
+}